@@ -0,0 +1,74 @@
+#!/usr/bin/env python3
+
+# implements the test function of 'example/test.sh' as a test server (see '--testServer')
+
+import os
+import re
+import struct
+import subprocess
+import sys
+import tempfile
+
+PATTERN = re.compile(r"[^.]\b13\b[^.].*[^.]\b3\b[^.]")
+
+
+def read_exactly(stream, length):
+    data = b""
+    while len(data) < length:
+        chunk = stream.read(length - len(data))
+        if not chunk:
+            return None
+        data += chunk
+    return data
+
+
+def triggers_bug(program):
+    # try to compile the reduction candidate
+    # if compilation fails, the reduction candidate no longer triggers the bug
+    with tempfile.NamedTemporaryFile(suffix=".c", mode="w") as candidate:
+        candidate.write(program)
+        candidate.flush()
+
+        compiled = subprocess.call(
+            ["gcc", "-w", "--std=c99", "-c", "-o", os.devnull, candidate.name],
+            stdout=subprocess.DEVNULL, stderr=subprocess.DEVNULL)
+
+        if compiled != 0:
+            return False
+
+    # check if there is a line that contains the two literal numbers 13 and 3
+    return any(PATTERN.search(line) for line in program.splitlines())
+
+
+def main():
+    requests = sys.stdin.buffer
+    responses = sys.stdout.buffer
+
+    while True:
+        header = read_exactly(requests, 4)
+        if header is None:
+            # stdin has been closed -> terminate
+            return
+
+        (length,) = struct.unpack(">i", header)
+        payload = read_exactly(requests, length)
+        if payload is None:
+            # stdin has been closed in the middle of a request -> terminate
+            return
+
+        program = payload.decode("utf-8")
+
+        status = 1 if triggers_bug(program) else 0
+
+        try:
+            responses.write(struct.pack(">i", status))
+            responses.flush()
+        except BrokenPipeError:
+            # the client is gone -> terminate (without a second error when stdout is flushed on
+            # exit)
+            os.dup2(os.open(os.devnull, os.O_WRONLY), sys.stdout.fileno())
+            return
+
+
+if __name__ == "__main__":
+    main()
@@ -28,6 +28,7 @@ import i2.act.reduction.ReducerFactory;
 import i2.act.reduction.ReductionRun;
 import i2.act.reduction.lists.ListReductionFactory;
 import i2.act.reduction.test.ExternalTestFunction;
+import i2.act.reduction.test.ServerTestFunction;
 import i2.act.reduction.test.TestFunction;
 import i2.act.reduction.util.TokenJoiner;
 import i2.act.util.ArgumentSplitter;
@@ -58,6 +59,10 @@ public final class ProgramReduction {
   private static final String OPTION_REDUCER = "--reduce";
   private static final String OPTION_LIST_REDUCTION = "--listReduction";
   private static final String OPTION_TEST = "--test";
+  private static final String OPTION_TEST_SERVER = "--testServer";
+  private static final String OPTION_TEST_TIMEOUT = "--testTimeout";
+  private static final String OPTION_ADAPTIVE_TIMEOUT = "--adaptiveTimeout";
+  private static final String OPTION_TIMEOUT_OUTCOME = "--timeoutOutcome";
   private static final String OPTION_JOIN = "--join";
   private static final String OPTION_TRY_FORMAT = "--tryFormat";
   private static final String OPTION_SIZE_LIMIT = "--sizeLimit";
@@ -70,6 +75,11 @@ public final class ProgramReduction {
   private static final String OPTION_STATS_CSV = "--statsCSV";
   private static final String OPTION_STATS_JSON = "--statsJSON";
   private static final String OPTION_CACHE = "--cache";
+  private static final String OPTION_VERIFY_CACHE = "--verifyCache";
+  private static final String OPTION_CACHE_FILE = "--cacheFile";
+  private static final String OPTION_CACHE_MEMORY = "--cacheMemory";
+  private static final String OPTION_JOBS = "--jobs";
+  private static final String OPTION_HISTORY = "--history";
   private static final String OPTION_COUNT_TOKENS = "--countTokens";
 
   private static final String OPTION_PRETTY_PRINT = "--prettyPrint";
@@ -101,6 +111,11 @@ public final class ProgramReduction {
     argumentsParser.addOption(OPTION_REDUCER, false, true, "<reducer name>");
     argumentsParser.addOption(OPTION_LIST_REDUCTION, false, true, "<list reduction name>");
     argumentsParser.addOption(OPTION_TEST, false, true, "<path to test script>");
+    argumentsParser.addOption(OPTION_TEST_SERVER, false, true, "<command to start test server>");
+    argumentsParser.addOption(OPTION_TEST_TIMEOUT, false, true, "<timeout per check (ms)>");
+    argumentsParser.addOption(OPTION_ADAPTIVE_TIMEOUT, false, true, "<factor>");
+    argumentsParser.addOption(OPTION_TIMEOUT_OUTCOME, false, true,
+        "<" + ReductionRun.TimeoutOutcome.options() + ">");
     argumentsParser.addOption(OPTION_JOIN, false, true, "<separator for token joining>");
     argumentsParser.addOption(OPTION_TRY_FORMAT, false);
     argumentsParser.addOption(OPTION_SIZE_LIMIT, false, true, "<limit>");
@@ -113,6 +128,11 @@ public final class ProgramReduction {
     argumentsParser.addOption(OPTION_STATS_CSV, false, true, "<CSV file name>");
     argumentsParser.addOption(OPTION_STATS_JSON, false, true, "<JSON file name>");
     argumentsParser.addOption(OPTION_CACHE, false);
+    argumentsParser.addOption(OPTION_VERIFY_CACHE, false);
+    argumentsParser.addOption(OPTION_CACHE_FILE, false, true, "<path to cache file>");
+    argumentsParser.addOption(OPTION_CACHE_MEMORY, false, true, "<memory budget (e.g., 512m)>");
+    argumentsParser.addOption(OPTION_JOBS, false, true, "<number of parallel checks>");
+    argumentsParser.addOption(OPTION_HISTORY, false, true, "<path to removal history file>");
     argumentsParser.addOption(OPTION_COUNT_TOKENS, false);
 
     argumentsParser.addOption(OPTION_PRETTY_PRINT, false);
@@ -336,8 +356,9 @@ public final class ProgramReduction {
     }
 
     if (arguments.hasOption(OPTION_REDUCER)) {
-      if (!arguments.hasOption(OPTION_TEST)) {
-        abort(String.format("[!] option '%s' is required", OPTION_TEST));
+      if (arguments.hasOption(OPTION_TEST) == arguments.hasOption(OPTION_TEST_SERVER)) {
+        abort(String.format("[!] exactly one of the options '%s' and '%s' is required",
+            OPTION_TEST, OPTION_TEST_SERVER));
       }
 
       final String reducerName = arguments.getOption(OPTION_REDUCER);
@@ -352,17 +373,28 @@ public final class ProgramReduction {
       final Reducer reducer = reducerFactory.createReducer(
           lexer, parser, grammar, listReductionFactory, replacements, joiner);
 
-      assert (arguments.hasOption(OPTION_TEST));
-      final String testCommand = arguments.getOption(OPTION_TEST);
-      final String[] testCommandLine = ArgumentSplitter.splitArguments(testCommand);
-
       final boolean keepSuccessful = arguments.hasOption(OPTION_KEEP_SUCCESSFUL)
           || arguments.hasOption(OPTION_KEEP_ALL);
       final boolean keepUnsuccessful = arguments.hasOption(OPTION_KEEP_UNSUCCESSFUL)
           || arguments.hasOption(OPTION_KEEP_ALL);
 
-      final TestFunction testFunction = new ExternalTestFunction(testCommandLine, outputFileName,
-          keepSuccessful, keepUnsuccessful);
+      final TestFunction testFunction;
+      {
+        if (arguments.hasOption(OPTION_TEST)) {
+          final String testCommand = arguments.getOption(OPTION_TEST);
+          final String[] testCommandLine = ArgumentSplitter.splitArguments(testCommand);
+
+          testFunction = new ExternalTestFunction(testCommandLine, outputFileName,
+              keepSuccessful, keepUnsuccessful);
+        } else {
+          assert (arguments.hasOption(OPTION_TEST_SERVER));
+          final String serverCommand = arguments.getOption(OPTION_TEST_SERVER);
+          final String[] serverCommandLine = ArgumentSplitter.splitArguments(serverCommand);
+
+          testFunction = new ServerTestFunction(serverCommandLine, outputFileName,
+              keepSuccessful, keepUnsuccessful);
+        }
+      }
 
       // this should make time measurements somewhat more deterministic...
       System.gc();
@@ -371,10 +403,80 @@ public final class ProgramReduction {
           arguments.hasOption(OPTION_KEEP_ITERATION_RESULTS) ? iterationResultFileName : null,
           arguments.hasOption(OPTION_COUNT_TOKENS) ? grammar : null, verbosity);
       {
-        if (arguments.hasOption(OPTION_CACHE)) {
+        if (arguments.hasOption(OPTION_CACHE_MEMORY)) {
+          final String memoryOption = arguments.getOption(OPTION_CACHE_MEMORY);
+          final long memoryBudget = parseMemorySize(memoryOption);
+
+          if (memoryBudget <= 0) {
+            abort(String.format("[!] invalid cache memory budget: '%s'", memoryOption));
+          }
+
+          run.enableMemoryBoundedCache(memoryBudget);
+        } else if (arguments.hasOption(OPTION_CACHE) || arguments.hasOption(OPTION_CACHE_FILE)) {
           run.enableCache();
         }
 
+        run.setCacheVerification(arguments.hasOption(OPTION_VERIFY_CACHE));
+
+        if (arguments.hasOption(OPTION_CACHE_FILE)) {
+          final String cacheFileName = arguments.getOption(OPTION_CACHE_FILE);
+          run.enablePersistentCache(cacheFileName);
+        }
+
+        if (arguments.hasOption(OPTION_TEST_TIMEOUT)) {
+          final int testTimeout = arguments.getIntOption(OPTION_TEST_TIMEOUT);
+
+          if (testTimeout <= 0) {
+            abort(String.format("[!] invalid test timeout: %d", testTimeout));
+          }
+
+          run.setTestTimeout(testTimeout);
+        }
+
+        if (arguments.hasOption(OPTION_ADAPTIVE_TIMEOUT)) {
+          final String factorOption = arguments.getOption(OPTION_ADAPTIVE_TIMEOUT);
+
+          double factor = -1;
+          try {
+            factor = Double.parseDouble(factorOption);
+          } catch (final NumberFormatException exception) {
+            // handled below
+          }
+
+          if (!(factor > 0)) {
+            abort(String.format("[!] invalid factor for adaptive timeout: '%s'", factorOption));
+          }
+
+          run.setAdaptiveTimeout(factor);
+        }
+
+        if (arguments.hasOption(OPTION_TIMEOUT_OUTCOME)) {
+          final String timeoutOutcomeName = arguments.getOption(OPTION_TIMEOUT_OUTCOME);
+          final ReductionRun.TimeoutOutcome timeoutOutcome =
+              ReductionRun.TimeoutOutcome.fromName(timeoutOutcomeName);
+
+          if (timeoutOutcome == null) {
+            abort(String.format("[!] invalid timeout outcome '%s'", timeoutOutcomeName));
+          }
+
+          run.setTimeoutOutcome(timeoutOutcome);
+        }
+
+        if (arguments.hasOption(OPTION_JOBS)) {
+          final int numberOfJobs = arguments.getIntOption(OPTION_JOBS);
+
+          if (numberOfJobs < 1) {
+            abort(String.format("[!] invalid number of jobs: %d", numberOfJobs));
+          }
+
+          run.setNumberOfJobs(numberOfJobs);
+        }
+
+        if (arguments.hasOption(OPTION_HISTORY)) {
+          final String historyFileName = arguments.getOption(OPTION_HISTORY);
+          run.enableRemovalHistory(historyFileName, FileUtil.readFile(grammarPath));
+        }
+
         if (arguments.hasOption(OPTION_SIZE_LIMIT)) {
           final int sizeLimit = arguments.getIntOption(OPTION_SIZE_LIMIT);
           run.setSizeLimit(sizeLimit);
@@ -413,6 +515,52 @@ public final class ProgramReduction {
     System.exit(1);
   }
 
+  // parses sizes like '4096', '64k', '512m', or '2g' (in bytes); returns -1 if invalid
+  private static final long parseMemorySize(final String size) {
+    final String trimmedSize = size.trim().toLowerCase();
+
+    if (trimmedSize.isEmpty()) {
+      return -1;
+    }
+
+    final char unit = trimmedSize.charAt(trimmedSize.length() - 1);
+    final int shift;
+
+    switch (unit) {
+      case 'k': {
+        shift = 10;
+        break;
+      }
+      case 'm': {
+        shift = 20;
+        break;
+      }
+      case 'g': {
+        shift = 30;
+        break;
+      }
+      default: {
+        shift = 0;
+        break;
+      }
+    }
+
+    final String digits =
+        (shift == 0) ? trimmedSize : trimmedSize.substring(0, trimmedSize.length() - 1);
+
+    try {
+      final long value = Long.parseLong(digits);
+
+      if (value < 0 || value > (Long.MAX_VALUE >> shift)) {
+        return -1;
+      }
+
+      return value << shift;
+    } catch (final NumberFormatException exception) {
+      return -1;
+    }
+  }
+
   private static final Map<String, Object> getConfigurationOptions(
       final ProgramArguments arguments) {
     final Map<String, Object> configurationOptions = new LinkedHashMap<>();
@@ -424,10 +572,19 @@ public final class ProgramReduction {
     setConfigurationOption(OPTION_REDUCER, configurationOptions, arguments);
     setConfigurationOption(OPTION_LIST_REDUCTION, configurationOptions, arguments);
     setConfigurationOption(OPTION_TEST, configurationOptions, arguments);
+    setConfigurationOption(OPTION_TEST_SERVER, configurationOptions, arguments);
+    setConfigurationOption(OPTION_TEST_TIMEOUT, configurationOptions, arguments);
+    setConfigurationOption(OPTION_ADAPTIVE_TIMEOUT, configurationOptions, arguments);
+    setConfigurationOption(OPTION_TIMEOUT_OUTCOME, configurationOptions, arguments);
     setConfigurationOption(OPTION_SIZE_LIMIT, configurationOptions, arguments);
     setConfigurationOption(OPTION_CHECK_LIMIT, configurationOptions, arguments);
     setConfigurationOption(OPTION_TIME_LIMIT, configurationOptions, arguments);
     setConfigurationOption(OPTION_CACHE, configurationOptions, arguments);
+    setConfigurationOption(OPTION_VERIFY_CACHE, configurationOptions, arguments);
+    setConfigurationOption(OPTION_CACHE_FILE, configurationOptions, arguments);
+    setConfigurationOption(OPTION_CACHE_MEMORY, configurationOptions, arguments);
+    setConfigurationOption(OPTION_JOBS, configurationOptions, arguments);
+    setConfigurationOption(OPTION_HISTORY, configurationOptions, arguments);
     setConfigurationOption(OPTION_REPLACEMENTS, configurationOptions, arguments);
     setConfigurationOption(OPTION_OMIT_QUANTIFIERS, configurationOptions, arguments);
     setConfigurationOption(OPTION_NO_COMPACTIFY, configurationOptions, arguments);
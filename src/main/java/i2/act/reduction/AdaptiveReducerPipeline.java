@@ -0,0 +1,161 @@
+package i2.act.reduction;
+
+import i2.act.packrat.Lexer;
+import i2.act.packrat.Parser;
+import i2.act.packrat.cst.Node;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// reducer pipeline that decides after each pass which stage to run next, based on the throughput
+// (removed characters per second) of the pass: the stages are ordered from coarse to fine, and a
+// stage is repeated as long as its throughput does not drop below a fraction of the throughput of
+// the first pass since the pipeline has switched to it
+//
+// if the throughput drops below this threshold, but the pass still made progress, the pipeline
+// moves back to the next coarser stage (whose checks are usually cheaper), since the removals of a
+// finer stage may enable removals of a coarser one; otherwise, it moves on to the next finer stage
+// that may still make progress
+//
+// the reduction ends once no stage makes progress on the current input; all stage switches are
+// recorded in the reduction run
+public final class AdaptiveReducerPipeline implements Reducer {
+
+  public static final double DEFAULT_THRESHOLD = 0.25;
+
+  private final Lexer lexer;
+  private final Parser parser;
+
+  private final double threshold;
+  private final List<Reducer> stages;
+
+  public AdaptiveReducerPipeline(final Lexer lexer, final Parser parser,
+      final Reducer... stages) {
+    this(lexer, parser, DEFAULT_THRESHOLD, Arrays.asList(stages));
+  }
+
+  public AdaptiveReducerPipeline(final Lexer lexer, final Parser parser, final double threshold,
+      final List<Reducer> stages) {
+    this.lexer = lexer;
+    this.parser = parser;
+    this.threshold = threshold;
+    this.stages = stages;
+    assert (!this.stages.isEmpty());
+    assert (threshold >= 0 && threshold <= 1);
+  }
+
+  @Override
+  public final String getName() {
+    return this.stages.stream().map(Reducer::getName).collect(Collectors.joining("|")) + "|auto";
+  }
+
+  private final Node<?> constructSyntaxTree(final String program, final ReductionRun run) {
+    if (ReducerPipeline.PAUSE_REDUCTION_RUN_FOR_PARSING) {
+      run.pause();
+    }
+
+    final Node<?> syntaxTree = this.parser.parse(this.lexer.lex(program));
+
+    if (ReducerPipeline.PAUSE_REDUCTION_RUN_FOR_PARSING) {
+      run.resume();
+    }
+
+    return syntaxTree;
+  }
+
+  @Override
+  public final String reduce(final Node<?> syntaxTree, final ReductionRun run) {
+    final int numberOfStages = this.stages.size();
+
+    // a stage is exhausted if its last pass did not make progress and the input has not changed
+    // since then
+    final boolean[] exhausted = new boolean[numberOfStages];
+
+    Node<?> currentSyntaxTree = syntaxTree;
+    String result = syntaxTree.print();
+
+    int stage = 0;
+
+    // throughput of the first pass since the pipeline has switched to the current stage
+    double initialThroughput = -1;
+
+    while (true) {
+      final int sizeBefore = result.length();
+      final int checksBefore = run.getNumberOfChecks();
+      final long timeBefore = run.getElapsedTime();
+
+      result = this.stages.get(stage).reduce(currentSyntaxTree, run);
+
+      final int removedCharacters = sizeBefore - result.length();
+      final int checks = run.getNumberOfChecks() - checksBefore;
+      final long time = run.getElapsedTime() - timeBefore;
+
+      final boolean progress = removedCharacters > 0;
+
+      // characters per second (passes that took less than a millisecond count as one)
+      final double throughput = progress ? removedCharacters * 1000.0 / Math.max(time, 1) : 0;
+
+      if (progress) {
+        // the input has changed -> every stage may make progress again
+        Arrays.fill(exhausted, false);
+      } else {
+        exhausted[stage] = true;
+      }
+
+      if (initialThroughput < 0) {
+        initialThroughput = throughput;
+      }
+
+      final int nextStage;
+      {
+        if (!progress) {
+          nextStage = nextNonExhaustedStage(exhausted, stage);
+        } else if (throughput >= this.threshold * initialThroughput) {
+          nextStage = stage;
+        } else if (stage > 0) {
+          nextStage = stage - 1;
+        } else {
+          nextStage = Math.min(stage + 1, numberOfStages - 1);
+        }
+      }
+
+      if (nextStage != stage) {
+        run.recordStageSwitch(this.stages.get(stage).getName(),
+            (nextStage == -1) ? null : this.stages.get(nextStage).getName(),
+            progress ? "throughput below threshold" : "no progress",
+            removedCharacters, checks, time);
+
+        initialThroughput = -1;
+      }
+
+      if (nextStage == -1) {
+        break;
+      }
+
+      stage = nextStage;
+      currentSyntaxTree = constructSyntaxTree(result, run);
+    }
+
+    return result;
+  }
+
+  // returns the next finer stage that is not exhausted; if there is none, the coarsest stage that
+  // is not exhausted is returned (or -1 if all stages are exhausted)
+  private static final int nextNonExhaustedStage(final boolean[] exhausted, final int stage) {
+    for (int nextStage = stage + 1; nextStage < exhausted.length; ++nextStage) {
+      if (!exhausted[nextStage]) {
+        return nextStage;
+      }
+    }
+
+    for (int nextStage = 0; nextStage < stage; ++nextStage) {
+      if (!exhausted[nextStage]) {
+        return nextStage;
+      }
+    }
+
+    return -1;
+  }
+
+}
@@ -0,0 +1,108 @@
+package i2.act.reduction;
+
+import i2.act.packrat.cst.Node;
+import i2.act.reduction.util.LongHashSet;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// caches failing configurations of a reducer (i.e., sets of removed nodes in a given version of a
+// syntax tree), so that repeated configurations can be rejected without serializing them
+//
+// configurations are identified by Zobrist hashes: each node is assigned a random 64-bit key, and
+// the hash of a configuration is the XOR of the keys of its removed nodes and a random key of the
+// tree version; thus, the hash of a configuration can be derived incrementally from the hash of a
+// similar configuration
+//
+// the cache lives for the whole reduction run, i.e., reducers should keep the version of a tree
+// across their calls to the list reduction (and across iterations) and only switch to a new one
+// when the tree actually changes, so that configurations that already failed are not checked again
+//
+// NOTE: only failing configurations are cached, since a successful one always changes the state of
+// the reducer
+public final class ConfigurationCache {
+
+  private static final long SEED = 0x5265645045474343L;
+
+  // the node keys are discarded if there are more of them (e.g., after many tree modifications)
+  private static final int MAX_NUMBER_OF_NODE_KEYS = 1 << 20;
+
+  private final SplittableRandom random;
+
+  private final Map<Node<?>, Long> nodeKeys;
+  private final LongHashSet failingConfigurations;
+
+  private int numberOfLookups;
+  private int numberOfHits;
+
+  public ConfigurationCache() {
+    this.random = new SplittableRandom(SEED);
+    this.nodeKeys = new IdentityHashMap<>();
+    this.failingConfigurations = new LongHashSet();
+  }
+
+  // returns the key of a new tree version; has to be called again whenever the tree (or the
+  // meaning of its configurations) changes
+  public final long newVersion() {
+    if (this.nodeKeys.size() > MAX_NUMBER_OF_NODE_KEYS) {
+      // the cached configurations refer to the discarded keys and are discarded as well
+      this.nodeKeys.clear();
+      this.failingConfigurations.clear();
+    }
+
+    return this.random.nextLong();
+  }
+
+  public final long hash(final Node<?> node) {
+    final Long key = this.nodeKeys.get(node);
+
+    if (key != null) {
+      return key;
+    }
+
+    final long newKey = this.random.nextLong();
+    this.nodeKeys.put(node, newKey);
+
+    return newKey;
+  }
+
+  public final long hash(final long hash, final Collection<? extends Node<?>> nodes) {
+    long combinedHash = hash;
+
+    for (final Node<?> node : nodes) {
+      combinedHash ^= hash(node);
+    }
+
+    return combinedHash;
+  }
+
+  public final boolean isFailing(final long configuration) {
+    ++this.numberOfLookups;
+
+    if (this.failingConfigurations.contains(configuration)) {
+      ++this.numberOfHits;
+      return true;
+    }
+
+    return false;
+  }
+
+  public final void addFailing(final long configuration) {
+    this.failingConfigurations.add(configuration);
+  }
+
+  public final int size() {
+    return this.failingConfigurations.size();
+  }
+
+  public final int getNumberOfLookups() {
+    return this.numberOfLookups;
+  }
+
+  public final int getNumberOfHits() {
+    return this.numberOfHits;
+  }
+
+}
@@ -0,0 +1,304 @@
+package i2.act.reduction;
+
+import i2.act.util.FileUtil;
+import i2.act.util.Fingerprint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// append-only file of test outcomes that can be shared between runs (and between concurrent
+// processes on the same host); each record consists of the fingerprint of a program, a hash of the
+// test function that has been used to check it, and the outcome of the check
+//
+// the records are not kept in memory: an index maps the fingerprints of the records (of the same
+// test function) to their positions in the file, and a record is only read if its fingerprint
+// matches the index entry
+public final class PersistentTestCache {
+
+  private static final byte[] MAGIC = "RedPEG01".getBytes(StandardCharsets.US_ASCII);
+  private static final int HEADER_SIZE = MAGIC.length;
+
+  // high (8) + low (8) + length (4) + test function hash (8) + outcome (1) + padding (3)
+  private static final int RECORD_SIZE = 32;
+
+  // number of records that are read at once when new records are indexed
+  private static final int RECORDS_PER_READ = 2048;
+
+  // records appended by other processes are only indexed after this number of misses (and only if
+  // the file has grown in the meantime)
+  public static final int REFRESH_INTERVAL = 64;
+
+  private static final int NO_RECORD = -1;
+
+  private final String fileName;
+  private final FileChannel channel;
+
+  private final long testFunctionHash;
+
+  // open addressing (with linear probing) over the 'high' parts of the fingerprints; each slot
+  // holds the number of a record in the file (or NO_RECORD)
+  private long[] indexKeys;
+  private int[] indexRecords;
+  private int indexSize;
+
+  // position up to which the file has already been indexed
+  private long readPosition;
+
+  private int missesSinceRefresh;
+
+  private final ByteBuffer recordBuffer;
+
+  private int numberOfLoadedRecords;
+  private int numberOfAppendedRecords;
+
+  public PersistentTestCache(final String fileName, final String testFunctionIdentity) {
+    this.fileName = fileName;
+
+    final Fingerprint identityFingerprint = Fingerprint.of(testFunctionIdentity);
+    this.testFunctionHash = identityFingerprint.high ^ identityFingerprint.low;
+
+    this.indexKeys = new long[16];
+    this.indexRecords = new int[16];
+    Arrays.fill(this.indexRecords, NO_RECORD);
+
+    this.recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+
+    try {
+      FileUtil.createPathIfNotExists(fileName);
+
+      this.channel = FileChannel.open(Paths.get(fileName),
+          StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+      initialize();
+      refresh();
+    } catch (final IOException exception) {
+      throw new RuntimeException(String.format("unable to open cache file '%s'", fileName),
+          exception);
+    }
+
+    this.numberOfLoadedRecords = this.indexSize;
+  }
+
+  private final void initialize() throws IOException {
+    try (final FileLock lock = this.channel.lock()) {
+      if (this.channel.size() == 0) {
+        this.channel.write(ByteBuffer.wrap(MAGIC), 0);
+      } else {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        this.channel.read(header, 0);
+
+        header.flip();
+
+        if (!header.equals(ByteBuffer.wrap(MAGIC))) {
+          throw new IOException("not a cache file");
+        }
+      }
+    }
+
+    this.readPosition = HEADER_SIZE;
+  }
+
+  // indexes all records that have been appended (by any process) since the last call
+  private final void refresh() throws IOException {
+    this.missesSinceRefresh = 0;
+
+    try (final FileLock lock = this.channel.lock(0, Long.MAX_VALUE, true)) {
+      final long size = this.channel.size();
+      final long numberOfNewRecords = (size - this.readPosition) / RECORD_SIZE;
+
+      if (numberOfNewRecords <= 0) {
+        return;
+      }
+
+      final ByteBuffer records = ByteBuffer.allocate(
+          (int) Math.min(numberOfNewRecords, RECORDS_PER_READ) * RECORD_SIZE);
+
+      long remainingRecords = numberOfNewRecords;
+
+      while (remainingRecords > 0) {
+        final int numberOfRecords = (int) Math.min(remainingRecords, RECORDS_PER_READ);
+
+        records.clear();
+        records.limit(numberOfRecords * RECORD_SIZE);
+        readFully(records, this.readPosition);
+        records.flip();
+
+        for (int record = 0; record < numberOfRecords; ++record) {
+          final long high = records.getLong();
+          records.position(records.position() + 12); // low and length
+          final long testFunctionHash = records.getLong();
+          records.position(records.position() + 4); // outcome and padding
+
+          if (testFunctionHash == this.testFunctionHash) {
+            addToIndex(high, recordNumber(this.readPosition) + record);
+          }
+        }
+
+        this.readPosition += ((long) numberOfRecords) * RECORD_SIZE;
+        remainingRecords -= numberOfRecords;
+      }
+    }
+  }
+
+  private final void readFully(final ByteBuffer buffer, final long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (this.channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("unexpected end of cache file");
+      }
+    }
+  }
+
+  private static final int recordNumber(final long position) {
+    return (int) ((position - HEADER_SIZE) / RECORD_SIZE);
+  }
+
+  private final void addToIndex(final long key, final int record) {
+    if (2 * (this.indexSize + 1) > this.indexKeys.length) {
+      final long[] keys = this.indexKeys;
+      final int[] records = this.indexRecords;
+
+      this.indexKeys = new long[2 * keys.length];
+      this.indexRecords = new int[2 * records.length];
+      Arrays.fill(this.indexRecords, NO_RECORD);
+
+      for (int slot = 0; slot < records.length; ++slot) {
+        if (records[slot] != NO_RECORD) {
+          insert(keys[slot], records[slot]);
+        }
+      }
+    }
+
+    insert(key, record);
+    ++this.indexSize;
+  }
+
+  private final void insert(final long key, final int record) {
+    final int mask = this.indexKeys.length - 1;
+
+    int slot = slot(key, mask);
+    while (this.indexRecords[slot] != NO_RECORD) {
+      slot = (slot + 1) & mask;
+    }
+
+    this.indexKeys[slot] = key;
+    this.indexRecords[slot] = record;
+  }
+
+  private static final int slot(final long key, final int mask) {
+    final long mixed = key * 0x9E3779B97F4A7C15L;
+    return (int) (mixed ^ (mixed >>> 32)) & mask;
+  }
+
+  // returns the outcome of the indexed record with the given fingerprint (or 'null' if there is
+  // none); only records whose key matches are read from the file
+  private final Boolean find(final Fingerprint fingerprint) throws IOException {
+    final int mask = this.indexKeys.length - 1;
+
+    for (int slot = slot(fingerprint.high, mask); this.indexRecords[slot] != NO_RECORD;
+        slot = (slot + 1) & mask) {
+      if (this.indexKeys[slot] != fingerprint.high) {
+        continue;
+      }
+
+      final ByteBuffer record = this.recordBuffer;
+      record.clear();
+      readFully(record, HEADER_SIZE + ((long) this.indexRecords[slot]) * RECORD_SIZE);
+      record.flip();
+
+      final long high = record.getLong();
+      final long low = record.getLong();
+      final int length = record.getInt();
+      record.getLong(); // test function hash (already checked during indexing)
+      final boolean containsBug = record.get() != 0;
+
+      if (high == fingerprint.high && low == fingerprint.low && length == fingerprint.length) {
+        return containsBug;
+      }
+    }
+
+    return null;
+  }
+
+  // returns the persisted outcome for the given fingerprint (or 'null' if there is none)
+  public final Boolean lookup(final Fingerprint fingerprint) {
+    try {
+      final Boolean outcome = find(fingerprint);
+
+      if (outcome != null) {
+        return outcome;
+      }
+
+      // another process may have checked the program in the meantime, but the file is only read
+      // again after a number of misses and if it has grown
+      if (++this.missesSinceRefresh < REFRESH_INTERVAL
+          || this.channel.size() < this.readPosition + RECORD_SIZE) {
+        return null;
+      }
+
+      final long previousReadPosition = this.readPosition;
+      refresh();
+
+      return (this.readPosition == previousReadPosition) ? null : find(fingerprint);
+    } catch (final IOException exception) {
+      throw new RuntimeException(
+          String.format("unable to read cache file '%s'", this.fileName), exception);
+    }
+  }
+
+  public final void append(final Fingerprint fingerprint, final boolean containsBug) {
+    final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    record.putLong(fingerprint.high);
+    record.putLong(fingerprint.low);
+    record.putInt(fingerprint.length);
+    record.putLong(this.testFunctionHash);
+    record.put((byte) (containsBug ? 1 : 0));
+    record.rewind();
+
+    try {
+      if (find(fingerprint) != null) {
+        return;
+      }
+
+      try (final FileLock lock = this.channel.lock()) {
+        // a record that has been partially written by a crashed process is overwritten
+        final long size = this.channel.size();
+        final long position = size - (size - HEADER_SIZE) % RECORD_SIZE;
+
+        while (record.hasRemaining()) {
+          this.channel.write(record, position + record.position());
+        }
+      }
+    } catch (final IOException exception) {
+      throw new RuntimeException(
+          String.format("unable to write to cache file '%s'", this.fileName), exception);
+    }
+
+    // NOTE: the record is indexed with the next refresh (until then, the in-memory cache of the
+    // reduction run contains the outcome anyway)
+
+    ++this.numberOfAppendedRecords;
+  }
+
+  public final int getNumberOfLoadedRecords() {
+    return this.numberOfLoadedRecords;
+  }
+
+  public final int getNumberOfAppendedRecords() {
+    return this.numberOfAppendedRecords;
+  }
+
+  public final void close() {
+    try {
+      this.channel.close();
+    } catch (final IOException exception) {
+      // ignore
+    }
+  }
+
+}
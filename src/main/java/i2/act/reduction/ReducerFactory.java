@@ -590,6 +590,22 @@ public interface ReducerFactory {
             grammar, listReductionFactory, joiner);
       }
 
+    },
+
+    AUTO("Auto") {
+
+      @Override
+      public final Reducer createReducer(final Lexer lexer, final Parser parser,
+          final Grammar grammar, final ListReductionFactory listReductionFactory,
+          final Map<Symbol<?>, List<Token>> replacements, final TokenJoiner joiner) {
+        return new AdaptiveReducerPipeline(lexer, parser,
+            COARSE_HDD.createReducer(
+                lexer, parser, grammar, listReductionFactory, replacements, joiner),
+            HDD.createReducer(lexer, parser, grammar, listReductionFactory, replacements, joiner),
+            PERSES.createReducer(
+                lexer, parser, grammar, listReductionFactory, replacements, joiner));
+      }
+
     };
 
     // =============================================================================================
@@ -615,12 +631,15 @@ public interface ReducerFactory {
 
       final List<ReducerFactory> reducerFactories = new ArrayList<>();
       final boolean[] fixpoint = { false };
+      final boolean[] adaptive = { false };
 
       for (int index = 0; index < baseReducerNames.length; ++index) {
         final String baseReducerName = baseReducerNames[index];
 
         if (index == baseReducerNames.length - 1 && baseReducerName.equals("*")) {
           fixpoint[0] = true;
+        } else if (index == baseReducerNames.length - 1 && baseReducerName.equals("auto")) {
+          adaptive[0] = true;
         } else {
           final ReducerFactory reducerFactory = fromSingleName(baseReducerName);
 
@@ -647,6 +666,11 @@ public interface ReducerFactory {
             reducers.add(reducer);
           }
 
+          if (adaptive[0]) {
+            return new AdaptiveReducerPipeline(lexer, parser,
+                AdaptiveReducerPipeline.DEFAULT_THRESHOLD, reducers);
+          }
+
           return new ReducerPipeline(lexer, parser, fixpoint[0], reducers);
         }
 
@@ -5,11 +5,16 @@ import i2.act.packrat.cst.Node;
 import i2.act.peg.ast.Grammar;
 import i2.act.peg.error.InvalidInputException;
 import i2.act.reduction.Reducer;
+import i2.act.reduction.test.ParallelTestFunction;
 import i2.act.reduction.test.TestFunction;
+import i2.act.reduction.test.TestTimeout;
 import i2.act.util.FileUtil;
+import i2.act.util.Fingerprint;
 import i2.act.util.LRUCache;
 import i2.act.util.LRUCache.EvictionFixedSize;
+import i2.act.util.LRUCache.EvictionMaxWeight;
 import i2.act.util.LRUCache.NoEviction;
+import i2.act.util.P2QuantileEstimator;
 import i2.act.util.SafeWriter;
 
 import java.io.File;
@@ -20,6 +25,14 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public final class ReductionRun {
@@ -29,7 +42,7 @@ public final class ReductionRun {
 
   public static enum Result {
 
-    SUCCESSFUL, NOT_SUCCESSFUL;
+    SUCCESSFUL, NOT_SUCCESSFUL, TIMEOUT;
 
     @Override
     public final String toString() {
@@ -71,11 +84,59 @@ public final class ReductionRun {
     protected final long timestamp;
     protected final long timeInTestFunction;
 
+    // lookups and hits in the configuration cache (both are '0' if it is disabled)
+    protected final int configurationLookups;
+    protected final int configurationHits;
+
     public ReductionIteration(final int checks, final long timestamp,
         final long timeInTestFunction) {
+      this(checks, timestamp, timeInTestFunction, 0, 0);
+    }
+
+    public ReductionIteration(final int checks, final long timestamp,
+        final long timeInTestFunction, final int configurationLookups,
+        final int configurationHits) {
       this.checks = checks;
       this.timestamp = timestamp;
       this.timeInTestFunction = timeInTestFunction;
+      this.configurationLookups = configurationLookups;
+      this.configurationHits = configurationHits;
+    }
+
+  }
+
+  // decision of an adaptive reducer pipeline to continue with another stage ('toStage' is 'null'
+  // if the reduction ends); the statistics refer to the last pass of 'fromStage'
+  public static final class StageSwitch {
+
+    protected final int iteration;
+    protected final long timestamp;
+    protected final String fromStage;
+    protected final String toStage;
+    protected final String reason;
+    protected final int removedCharacters;
+    protected final int checks;
+    protected final long time;
+
+    public StageSwitch(final int iteration, final long timestamp, final String fromStage,
+        final String toStage, final String reason, final int removedCharacters, final int checks,
+        final long time) {
+      this.iteration = iteration;
+      this.timestamp = timestamp;
+      this.fromStage = fromStage;
+      this.toStage = toStage;
+      this.reason = reason;
+      this.removedCharacters = removedCharacters;
+      this.checks = checks;
+      this.time = time;
+    }
+
+    public final double getCharactersPerCheck() {
+      return (this.checks == 0) ? 0 : ((double) this.removedCharacters) / this.checks;
+    }
+
+    public final double getCharactersPerSecond() {
+      return ((double) this.removedCharacters) * 1000 / Math.max(this.time, 1);
     }
 
   }
@@ -120,12 +181,75 @@ public final class ReductionRun {
 
   }
 
+  // determines how a check that exceeds the test timeout is treated
+  public static enum TimeoutOutcome {
+    INTERESTING, UNINTERESTING, RETRY;
+
+    public static TimeoutOutcome fromName(final String name) {
+      for (final TimeoutOutcome timeoutOutcome : TimeoutOutcome.values()) {
+        if (timeoutOutcome.name().equals(name)) {
+          return timeoutOutcome;
+        }
+      }
+
+      return null;
+    }
+
+    public static final String options() {
+      return Arrays.stream(TimeoutOutcome.values())
+          .map(TimeoutOutcome::name)
+          .collect(Collectors.joining(" | "));
+    }
+
+  }
+
   public static final Verbosity DEFAULT_VERBOSITY = Verbosity.MORE;
 
+  public static final TimeoutOutcome DEFAULT_TIMEOUT_OUTCOME = TimeoutOutcome.UNINTERESTING;
+
+  // number of times a check is repeated if it exceeds the timeout (for TimeoutOutcome.RETRY);
+  // if it still exceeds the timeout, the candidate is considered to be uninteresting
+  public static final int MAX_TIMEOUT_RETRIES = 1;
+
+  // quantiles of the verification times that are tracked during the reduction
+  public static final double[] VERIFICATION_TIME_QUANTILES = { 0.5, 0.9, 0.99 };
+
+  // the adaptive timeout is only used once enough verification times have been observed
+  public static final int ADAPTIVE_TIMEOUT_WARM_UP = 20;
+  public static final long MIN_ADAPTIVE_TIMEOUT = 100; // ms
+
+  public static final int DEFAULT_NUMBER_OF_JOBS = 1;
+
   private static final Verbosity VERBOSITY_START_STOP = Verbosity.MINIMAL;
   private static final Verbosity VERBOSITY_SUCCESSFUL = Verbosity.MORE;
   private static final Verbosity VERBOSITY_NOT_SUCCESSFUL = Verbosity.ALL;
 
+  private static final class Check {
+
+    protected final boolean triggersBug;
+    protected final boolean timedOut;
+    protected final long startTime;
+    protected final long endTime;
+
+    // the outcome has been taken from the cache file, i.e., the test function has not been called
+    protected final boolean persisted;
+
+    public Check(final boolean triggersBug, final boolean timedOut, final long startTime,
+        final long endTime) {
+      this(triggersBug, timedOut, startTime, endTime, false);
+    }
+
+    public Check(final boolean triggersBug, final boolean timedOut, final long startTime,
+        final long endTime, final boolean persisted) {
+      this.triggersBug = triggersBug;
+      this.timedOut = timedOut;
+      this.startTime = startTime;
+      this.endTime = endTime;
+      this.persisted = persisted;
+    }
+
+  }
+
 
   // -----------------------------------------------------------------------------------------------
 
@@ -148,11 +272,33 @@ public final class ReductionRun {
   private long timeInTestFunction;
 
   private int numberOfChecks;
+  private int numberOfTimeouts;
+
+  private final P2QuantileEstimator[] verificationTimeQuantiles;
 
   private final List<ReductionStep> reductionSteps;
   private final List<ReductionIteration> iterations;
+  private final List<StageSwitch> stageSwitches;
+
+  // the cache is keyed by fingerprints of the programs; if 'verifyFingerprints' is set, the
+  // fingerprints also keep the programs to detect collisions
+  private LRUCache<Fingerprint, Boolean> cache;
+  private boolean verifyFingerprints = false;
+  private int fingerprintCollisions;
+  private long cacheMemoryBudget = -1;
+
+  private int cacheHits;
+  private int cacheMisses;
 
-  private LRUCache<String, Boolean> cache;
+  // caches failing configurations of the reducers to avoid serializing them again
+  private ConfigurationCache configurationCache;
+
+  // optional second level of the cache that is shared between runs
+  private PersistentTestCache persistentCache;
+  private int persistentCacheHits;
+
+  // optional statistics of removals per grammar symbol that are shared between runs
+  private RemovalHistory removalHistory;
 
   private final Verbosity verbosity;
 
@@ -164,6 +310,14 @@ public final class ReductionRun {
 
   private String abortion = null;
 
+  private long testTimeout = TestFunction.NO_TIMEOUT;
+  private double adaptiveTimeoutFactor = -1;
+  private TimeoutOutcome timeoutOutcome = DEFAULT_TIMEOUT_OUTCOME;
+
+  private int numberOfJobs = DEFAULT_NUMBER_OF_JOBS;
+  private ExecutorService workerPool;
+  private BlockingQueue<Integer> idleWorkers;
+
   public ReductionRun(final Node<?> syntaxTree, final Reducer reducer,
       final TestFunction testFunction) {
     this(syntaxTree, reducer, testFunction, null, null, DEFAULT_VERBOSITY);
@@ -195,6 +349,14 @@ public final class ReductionRun {
     this.numberOfChecks = 0;
 
     this.iterations = new ArrayList<ReductionIteration>();
+    this.stageSwitches = new ArrayList<StageSwitch>();
+
+    this.verificationTimeQuantiles =
+        new P2QuantileEstimator[VERIFICATION_TIME_QUANTILES.length];
+    for (int index = 0; index < VERIFICATION_TIME_QUANTILES.length; ++index) {
+      this.verificationTimeQuantiles[index] =
+          new P2QuantileEstimator(VERIFICATION_TIME_QUANTILES[index]);
+    }
 
     if (grammar == null) {
       this.lexer = null;
@@ -205,11 +367,68 @@ public final class ReductionRun {
   }
 
   public final void enableCache() {
-    this.cache = new LRUCache<String, Boolean>(new NoEviction());
+    this.cache = new LRUCache<Fingerprint, Boolean>(
+        new NoEviction(), Fingerprint::getLength, ReductionRun::estimateCacheEntrySize);
+    this.configurationCache = new ConfigurationCache();
   }
 
   public final void enableCache(final int maxCacheSize) {
-    this.cache = new LRUCache<String, Boolean>(new EvictionFixedSize(maxCacheSize));
+    this.cache = new LRUCache<Fingerprint, Boolean>(
+        new EvictionFixedSize(maxCacheSize), Fingerprint::getLength,
+        ReductionRun::estimateCacheEntrySize);
+    this.configurationCache = new ConfigurationCache();
+  }
+
+  // evicts the least recently used entries once the estimated memory of the cache (in bytes)
+  // exceeds the given budget
+  public final void enableMemoryBoundedCache(final long memoryBudget) {
+    this.cache = new LRUCache<Fingerprint, Boolean>(
+        new EvictionMaxWeight(memoryBudget), Fingerprint::getLength,
+        ReductionRun::estimateCacheEntrySize);
+    this.cacheMemoryBudget = memoryBudget;
+    this.configurationCache = new ConfigurationCache();
+  }
+
+  private static final long estimateCacheEntrySize(final Fingerprint fingerprint,
+      final Boolean result) {
+    // the results are canonical 'Boolean' instances and therefore do not take up extra memory
+    return fingerprint.estimatedSize() + LRUCache.ESTIMATED_ENTRY_OVERHEAD;
+  }
+
+  // NOTE: requires an enabled cache and a test function with an identity
+  public final void enablePersistentCache(final String cacheFileName) {
+    assert (this.cache != null);
+
+    final String testFunctionIdentity = this.testFunction.getIdentity();
+    if (testFunctionIdentity == null) {
+      throw new IllegalStateException("test function does not support persistent caching");
+    }
+
+    this.persistentCache = new PersistentTestCache(cacheFileName, testFunctionIdentity);
+  }
+
+  // the grammar (i.e., its source) identifies the statistics in the history file
+  public final void enableRemovalHistory(final String historyFileName, final String grammar) {
+    this.removalHistory = new RemovalHistory(historyFileName, grammar);
+  }
+
+  // returns 'null' if the removal history is disabled
+  public final RemovalHistory getRemovalHistory() {
+    return this.removalHistory;
+  }
+
+  public final void setCacheVerification(final boolean verifyFingerprints) {
+    this.verifyFingerprints = verifyFingerprints;
+  }
+
+  // returns 'null' if the cache is disabled; as the configurations are only identified by 64-bit
+  // hashes, they are not cached either if the fingerprints should be verified
+  public final ConfigurationCache getConfigurationCache() {
+    if (this.verifyFingerprints) {
+      return null;
+    }
+
+    return this.configurationCache;
   }
 
   public final void setSizeLimit(final int sizeLimit) {
@@ -224,27 +443,336 @@ public final class ReductionRun {
     this.timeLimit = timeLimit;
   }
 
+  public final void setTestTimeout(final long testTimeout) {
+    this.testTimeout = testTimeout;
+  }
+
+  // the timeout of each check is set to 'factor' times the (estimated) 99th percentile of the
+  // verification times observed so far; if a fixed test timeout is set as well, the smaller one
+  // is used
+  public final void setAdaptiveTimeout(final double factor) {
+    assert (factor > 0);
+    this.adaptiveTimeoutFactor = factor;
+  }
+
+  public final void setTimeoutOutcome(final TimeoutOutcome timeoutOutcome) {
+    this.timeoutOutcome = timeoutOutcome;
+  }
+
+  public final void setNumberOfJobs(final int numberOfJobs) {
+    assert (numberOfJobs >= 1);
+    this.numberOfJobs = numberOfJobs;
+  }
+
+  public final int getNumberOfJobs() {
+    return this.numberOfJobs;
+  }
+
+  public final boolean isParallel() {
+    return this.numberOfJobs > 1 && (this.testFunction instanceof ParallelTestFunction);
+  }
+
   public final boolean test(final String program) {
     assertRunning();
 
-    if (resultInCache(program)) {
-      return this.cache.get(program);
+    final Fingerprint fingerprint = fingerprint(program);
+
+    final boolean cached = resultInCache(fingerprint);
+    final Boolean persistedResult = cached ? null : persistedResult(fingerprint);
+
+    if (countCacheLookup(cached || persistedResult != null)) {
+      return cached
+          ? this.cache.get(fingerprint)
+          : usePersistedResult(program, fingerprint, persistedResult);
     }
 
-    if (this.checkLimit > -1 && this.numberOfChecks >= this.checkLimit) {
-      throw new ReductionAborted(String.format("reached check limit (%d)", this.checkLimit));
+    assertCheckLimitNotReached();
+
+    final long timeout = getCurrentTestTimeout();
+    final Check check =
+        retryOnTimeout(runCheck(program, 0, timeout), () -> runCheck(program, 0, timeout));
+    final boolean triggersBug = triggersBug(check);
+
+    if (this.testFunction instanceof ParallelTestFunction) {
+      ((ParallelTestFunction) this.testFunction).record(program, triggersBug);
+    }
+
+    commit(program, fingerprint, triggersBug, check);
+
+    return triggersBug;
+  }
+
+  public final int testFirst(final List<String> programs) {
+    return testFirst(programs.size(), programs::get);
+  }
+
+  // returns the index of the first program that triggers the bug (or -1 if there is no such
+  // program); 'null' programs are skipped without a check; in parallel mode, all programs are
+  // checked concurrently, but the results are committed in the order of the programs and only up
+  // to the first successful one, so that the reduction behaves exactly as if the programs were
+  // checked one after another
+  public final int testFirst(final int numberOfPrograms, final IntFunction<String> programs) {
+    assertRunning();
+
+    if (!isParallel() || numberOfPrograms < 2) {
+      for (int index = 0; index < numberOfPrograms; ++index) {
+        final String program = programs.apply(index);
+
+        if (program != null && test(program)) {
+          return index;
+        }
+      }
+
+      return -1;
+    }
+
+    final List<String> serializedPrograms = new ArrayList<>(numberOfPrograms);
+    for (int index = 0; index < numberOfPrograms; ++index) {
+      serializedPrograms.add(programs.apply(index));
+    }
+
+    return testInParallel(serializedPrograms, new boolean[numberOfPrograms], true);
+  }
+
+  public final boolean[] testAll(final List<String> programs) {
+    assertRunning();
+
+    final boolean[] results = new boolean[programs.size()];
+
+    if (isParallel() && programs.size() >= 2) {
+      testInParallel(programs, results, false);
+    } else {
+      for (int index = 0; index < programs.size(); ++index) {
+        final String program = programs.get(index);
+        results[index] = (program != null) && test(program);
+      }
+    }
+
+    return results;
+  }
+
+  private final int testInParallel(final List<String> programs, final boolean[] results,
+      final boolean stopAtFirstSuccess) {
+    assert (isParallel());
+
+    final List<Fingerprint> fingerprints = new ArrayList<>(programs.size());
+    for (final String program : programs) {
+      fingerprints.add((program == null) ? null : fingerprint(program));
+    }
+
+    // results from the cache file are looked up once, but only used in the order of the programs
+    final List<Boolean> persistedResults = new ArrayList<>(programs.size());
+
+    final List<Future<Check>> checks = new ArrayList<>(programs.size());
+    {
+      int remainingChecks = (this.checkLimit > -1)
+          ? (this.checkLimit - this.numberOfChecks)
+          : Integer.MAX_VALUE;
+
+      for (int index = 0; index < programs.size(); ++index) {
+        final String program = programs.get(index);
+        final Fingerprint fingerprint = fingerprints.get(index);
+
+        final boolean cached = program != null && resultInCache(fingerprint);
+        final Boolean persistedResult =
+            (program == null || cached) ? null : persistedResult(fingerprint);
+
+        persistedResults.add(persistedResult);
+
+        if (program == null || cached || persistedResult != null || remainingChecks <= 0) {
+          checks.add(null);
+        } else {
+          checks.add(submitCheck(program));
+          --remainingChecks;
+        }
+      }
+    }
+
+    int firstSuccessfulIndex = -1;
+
+    try {
+      for (int index = 0; index < programs.size(); ++index) {
+        final String program = programs.get(index);
+        final Fingerprint fingerprint = fingerprints.get(index);
+        final boolean triggersBug;
+
+        if (program == null) {
+          triggersBug = false;
+        } else if (resultInCache(fingerprint)) {
+          countCacheLookup(true);
+          triggersBug = this.cache.get(fingerprint);
+        } else if (persistedResults.get(index) != null) {
+          countCacheLookup(true);
+          triggersBug = usePersistedResult(program, fingerprint, persistedResults.get(index));
+        } else {
+          countCacheLookup(false);
+          assertCheckLimitNotReached();
+
+          // the program might not have been submitted yet (e.g., if its cache entry has been
+          // removed in the meantime)
+          final Future<Check> submittedCheck = checks.get(index);
+          final Check check = retryOnTimeout(
+              awaitCheck((submittedCheck == null) ? submitCheck(program) : submittedCheck),
+              () -> awaitCheck(submitCheck(program)));
+
+          triggersBug = triggersBug(check);
+
+          ((ParallelTestFunction) this.testFunction).record(program, triggersBug);
+          commit(program, fingerprint, triggersBug, check);
+        }
+
+        results[index] = triggersBug;
+
+        if (triggersBug && firstSuccessfulIndex == -1) {
+          firstSuccessfulIndex = index;
+
+          if (stopAtFirstSuccess) {
+            break;
+          }
+        }
+      }
+    } finally {
+      // the results of all remaining checks are discarded (and still running test processes are
+      // killed)
+      for (final Future<Check> check : checks) {
+        if (check != null) {
+          check.cancel(true);
+        }
+      }
     }
 
+    return firstSuccessfulIndex;
+  }
+
+  private final Future<Check> submitCheck(final String program) {
+    // the timeout has to be determined here, as the workers must not access the estimators
+    final long timeout = getCurrentTestTimeout();
+
+    return this.workerPool.submit(() -> {
+      final int worker = this.idleWorkers.take();
+
+      try {
+        return runCheck(program, worker, timeout);
+      } finally {
+        this.idleWorkers.add(worker);
+      }
+    });
+  }
+
+  // NOTE: this may be called concurrently by different workers
+  private final Check runCheck(final String program, final int worker, final long timeout) {
     final long startTime = System.currentTimeMillis();
-    final boolean triggersBug = this.testFunction.test(program);
+
+    boolean triggersBug = false;
+    boolean timedOut = false;
+
+    try {
+      if (this.testFunction instanceof ParallelTestFunction) {
+        triggersBug = ((ParallelTestFunction) this.testFunction)
+            .check(program, worker, timeout);
+      } else {
+        triggersBug = this.testFunction.test(program, timeout);
+      }
+    } catch (final TestTimeout exception) {
+      timedOut = true;
+    }
+
     final long endTime = System.currentTimeMillis();
 
+    return new Check(triggersBug, timedOut, startTime, endTime);
+  }
+
+  private final long getCurrentTestTimeout() {
+    final P2QuantileEstimator percentile99 =
+        this.verificationTimeQuantiles[VERIFICATION_TIME_QUANTILES.length - 1];
+
+    if (this.adaptiveTimeoutFactor <= 0 || percentile99.getCount() < ADAPTIVE_TIMEOUT_WARM_UP) {
+      return this.testTimeout;
+    }
+
+    final long adaptiveTimeout = Math.max(MIN_ADAPTIVE_TIMEOUT,
+        (long) Math.ceil(this.adaptiveTimeoutFactor * percentile99.estimate()));
+
+    if (this.testTimeout == TestFunction.NO_TIMEOUT) {
+      return adaptiveTimeout;
+    } else {
+      return Math.min(this.testTimeout, adaptiveTimeout);
+    }
+  }
+
+  private final Check retryOnTimeout(final Check check, final Supplier<Check> recheck) {
+    Check result = check;
+
+    for (int retries = 0; result.timedOut && this.timeoutOutcome == TimeoutOutcome.RETRY
+        && retries < MAX_TIMEOUT_RETRIES; ++retries) {
+      final Check retry = recheck.get();
+
+      // the time of all attempts is attributed to the check
+      result = new Check(retry.triggersBug, retry.timedOut, check.startTime, retry.endTime);
+    }
+
+    return result;
+  }
+
+  private final boolean triggersBug(final Check check) {
+    if (check.timedOut) {
+      return this.timeoutOutcome == TimeoutOutcome.INTERESTING;
+    } else {
+      return check.triggersBug;
+    }
+  }
+
+  private final Check awaitCheck(final Future<Check> check) {
+    try {
+      return check.get();
+    } catch (final InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while waiting for test function", exception);
+    } catch (final ExecutionException exception) {
+      throw new RuntimeException("unable to execute test function", exception.getCause());
+    }
+  }
+
+  private final void startWorkers() {
+    this.workerPool = Executors.newFixedThreadPool(this.numberOfJobs);
+    this.idleWorkers = new ArrayBlockingQueue<>(this.numberOfJobs);
+
+    for (int worker = 0; worker < this.numberOfJobs; ++worker) {
+      this.idleWorkers.add(worker);
+    }
+  }
+
+  private final void stopWorkers() {
+    if (this.workerPool != null) {
+      this.workerPool.shutdownNow();
+      this.workerPool = null;
+    }
+  }
+
+  private final void assertCheckLimitNotReached() {
+    if (this.checkLimit > -1 && this.numberOfChecks >= this.checkLimit) {
+      throw new ReductionAborted(String.format("reached check limit (%d)", this.checkLimit));
+    }
+  }
+
+  private final void commit(final String program, final Fingerprint fingerprint,
+      final boolean triggersBug, final Check check) {
+    final long startTime = check.startTime;
+    final long endTime = check.endTime;
+
     // add to cache and remove obsolete elements
     if (this.cache != null) {
-      this.cache.put(program, triggersBug);
+      this.cache.put(fingerprint, triggersBug);
+
+      // timeouts might not be reproducible -> never persist them
+      if (this.persistentCache != null && !check.timedOut && !check.persisted) {
+        this.persistentCache.append(fingerprint, triggersBug);
+      }
 
+      // results of programs that are larger than the current reduction result are no longer
+      // needed
       if (triggersBug) {
-        this.cache.clear(cachedProgram -> cachedProgram.length() > program.length());
+        this.cache.removeLongerThan(program.length());
       }
     }
 
@@ -254,11 +782,34 @@ public final class ReductionRun {
 
     final long verificationTime = endTime - startTime;
 
-    this.timeInTestFunction += verificationTime;
+    // results from the cache file are recorded as steps (without verification time), but they are
+    // no checks
+    if (!check.persisted) {
+      this.timeInTestFunction += verificationTime;
 
-    ++this.numberOfChecks;
+      // NOTE: checks that exceeded the timeout are included with the time at which they were
+      // aborted, which allows the adaptive timeout to grow again if it is too tight
+      for (final P2QuantileEstimator quantileEstimator : this.verificationTimeQuantiles) {
+        quantileEstimator.add(verificationTime);
+      }
+
+      ++this.numberOfChecks;
+    }
+
+    if (check.timedOut) {
+      ++this.numberOfTimeouts;
+    }
 
-    final Result result = (triggersBug) ? Result.SUCCESSFUL : Result.NOT_SUCCESSFUL;
+    final Result result;
+    {
+      if (triggersBug) {
+        result = Result.SUCCESSFUL;
+      } else if (check.timedOut) {
+        result = Result.TIMEOUT;
+      } else {
+        result = Result.NOT_SUCCESSFUL;
+      }
+    }
 
     final int size = program.length();
     final int tokens = numberOfTokens(program, result);
@@ -272,8 +823,6 @@ public final class ReductionRun {
         throw new ReductionAborted(String.format("reached size limit (%d)", this.sizeLimit));
       }
     }
-
-    return triggersBug;
   }
 
   public final String start() {
@@ -292,6 +841,10 @@ public final class ReductionRun {
           this.reducer.getName(), originalSize);
     }
 
+    if (isParallel()) {
+      startWorkers();
+    }
+
     String result;
 
     try {
@@ -335,8 +888,18 @@ public final class ReductionRun {
     }
 
     this.endTime = System.currentTimeMillis();
+
+    stopWorkers();
     this.testFunction.cleanup();
 
+    if (this.persistentCache != null) {
+      this.persistentCache.close();
+    }
+
+    if (this.removalHistory != null) {
+      this.removalHistory.save();
+    }
+
     if (this.verbosity.atLeast(VERBOSITY_START_STOP)) {
       final long timestamp = getDuration();
       printMessage(timestamp, "reduction finished:");
@@ -358,6 +921,30 @@ public final class ReductionRun {
       printMessage(timestamp, "~~ %d ms (%.2f %%) in test function",
           this.timeInTestFunction,
           ((double) this.timeInTestFunction) / timestamp * 100);
+
+      if (this.numberOfTimeouts > 0) {
+        printMessage(timestamp, "~~ %d checks exceeded the timeout (%s)",
+            this.numberOfTimeouts, this.timeoutOutcome);
+      }
+
+      if (this.cache != null) {
+        printMessage(timestamp, "~~ %d cached test results (~%d KiB)",
+            this.cache.size(), getEstimatedCacheMemory() / 1024);
+        printMessage(timestamp, "~~ %d cache hits, %d misses, %d evictions, %d invalidations",
+            this.cacheHits, this.cacheMisses, this.cache.getNumberOfEvictions(),
+            this.cache.getNumberOfInvalidations());
+      }
+
+      if (getConfigurationCache() != null) {
+        printMessage(timestamp, "~~ %d configurations rejected without serialization",
+            this.configurationCache.getNumberOfHits());
+      }
+
+      if (this.persistentCache != null) {
+        printMessage(timestamp, "~~ %d hits in cache file (%d loaded, %d appended)",
+            this.persistentCacheHits, this.persistentCache.getNumberOfLoadedRecords(),
+            this.persistentCache.getNumberOfAppendedRecords());
+      }
     }
   }
 
@@ -368,14 +955,22 @@ public final class ReductionRun {
     final long timestamp = getTimestamp();
     final long timeInTestFunction = this.timeInTestFunction;
 
-    final ReductionIteration iteration =
-        new ReductionIteration(checks, timestamp, timeInTestFunction);
+    final ConfigurationCache configurationCache = getConfigurationCache();
+    final int configurationLookups =
+        (configurationCache == null) ? 0 : configurationCache.getNumberOfLookups();
+    final int configurationHits =
+        (configurationCache == null) ? 0 : configurationCache.getNumberOfHits();
+
+    final ReductionIteration iteration = new ReductionIteration(checks, timestamp,
+        timeInTestFunction, configurationLookups, configurationHits);
     this.iterations.add(iteration);
 
     if (this.verbosity.atLeast(VERBOSITY_START_STOP)) {
       final int iterationChecks;
       final long iterationTime;
       final long iterationTimeInTestFunction;
+      final int iterationConfigurationLookups;
+      final int iterationConfigurationHits;
       {
         final int numberOfIterations = this.iterations.size();
         assert (numberOfIterations > 0);
@@ -384,17 +979,29 @@ public final class ReductionRun {
           iterationChecks = checks;
           iterationTime = timestamp;
           iterationTimeInTestFunction = timeInTestFunction;
+          iterationConfigurationLookups = configurationLookups;
+          iterationConfigurationHits = configurationHits;
         } else {
           final ReductionIteration previousIteration = this.iterations.get(numberOfIterations - 2);
 
           iterationChecks = checks - previousIteration.checks;
           iterationTime = timestamp - previousIteration.timestamp;
           iterationTimeInTestFunction = timeInTestFunction - previousIteration.timeInTestFunction;
+          iterationConfigurationLookups =
+              configurationLookups - previousIteration.configurationLookups;
+          iterationConfigurationHits = configurationHits - previousIteration.configurationHits;
         }
       }
 
       printMessage(timestamp, "iteration finished (%5d checks, %6d ms, %6d ms in test function)",
           iterationChecks, iterationTime, iterationTimeInTestFunction);
+
+      if (configurationCache != null && iterationConfigurationLookups > 0) {
+        printMessage(timestamp,
+            "~~ %d of %d configurations (%.2f %%) rejected without serialization",
+            iterationConfigurationHits, iterationConfigurationLookups,
+            ((double) iterationConfigurationHits) / iterationConfigurationLookups * 100);
+      }
     }
 
     if (this.iterationResultFileName != null) {
@@ -410,9 +1017,26 @@ public final class ReductionRun {
     }
   }
 
+  public final void recordStageSwitch(final String fromStage, final String toStage,
+      final String reason, final int removedCharacters, final int checks, final long time) {
+    assertStarted();
+
+    final long timestamp = getTimestamp();
+
+    final StageSwitch stageSwitch = new StageSwitch(this.iterations.size(), timestamp,
+        fromStage, toStage, reason, removedCharacters, checks, time);
+    this.stageSwitches.add(stageSwitch);
+
+    if (this.verbosity.atLeast(VERBOSITY_START_STOP)) {
+      printMessage(timestamp, "stage '%s' -> %s (%s: %d characters, %d checks, %d ms)",
+          fromStage, (toStage == null) ? "end" : String.format("'%s'", toStage), reason,
+          removedCharacters, checks, time);
+    }
+  }
+
   private final int numberOfTokens(final String program, final Result result) {
     if (this.lexer == null
-        || (result == Result.NOT_SUCCESSFUL && SKIP_TOKEN_COUNTING_IN_UNSUCCESSFUL)) {
+        || (result != Result.SUCCESSFUL && SKIP_TOKEN_COUNTING_IN_UNSUCCESSFUL)) {
       return -1;
     }
 
@@ -488,10 +1112,20 @@ public final class ReductionRun {
     return this.endTime - this.startTime - this.timeInLexer - this.pausedTime;
   }
 
+  // time since the start of the reduction (without paused time), i.e., the time that the reducers
+  // see while the run is not stopped
+  public final long getElapsedTime() {
+    return getTimestamp();
+  }
+
   public final int getNumberOfChecks() {
     return this.numberOfChecks;
   }
 
+  public final int getNumberOfTimeouts() {
+    return this.numberOfTimeouts;
+  }
+
   public final int getNumberOfReductions() {
     assertStarted();
 
@@ -538,6 +1172,10 @@ public final class ReductionRun {
     if (result == Result.NOT_SUCCESSFUL && this.verbosity.atLeast(VERBOSITY_NOT_SUCCESSFUL)) {
       printMessage(timestamp, "unsuccessful reduction");
     }
+
+    if (result == Result.TIMEOUT && this.verbosity.atLeast(VERBOSITY_NOT_SUCCESSFUL)) {
+      printMessage(timestamp, "unsuccessful reduction (timeout)");
+    }
   }
 
   public final void writeAsCSV(final String fileName) {
@@ -663,7 +1301,51 @@ public final class ReductionRun {
 
         writer.write("\t\t\t\"checks\": %d,\n", iteration.checks);
         writer.write("\t\t\t\"timestamp\": %d,\n", iteration.timestamp);
-        writer.write("\t\t\t\"timeInTestFunction\": %d\n", iteration.timeInTestFunction);
+        writer.write("\t\t\t\"timeInTestFunction\": %d", iteration.timeInTestFunction);
+
+        if (getConfigurationCache() != null) {
+          writer.write(",\n");
+          writer.write("\t\t\t\"configurationLookups\": %d,\n", iteration.configurationLookups);
+          writer.write("\t\t\t\"configurationHits\": %d", iteration.configurationHits);
+        }
+
+        writer.write("\n");
+
+        writer.write("\t\t}");
+      }
+
+      writer.write("\n\t],\n");
+    }
+
+    // stage switches of an adaptive reducer pipeline
+    if (!this.stageSwitches.isEmpty()) {
+      writer.write("\t\"stageSwitches\": [");
+
+      boolean first = true;
+
+      for (final StageSwitch stageSwitch : this.stageSwitches) {
+        if (first) {
+          writer.write("\n");
+          first = false;
+        } else {
+          writer.write(",\n");
+        }
+
+        writer.write("\t\t{\n");
+
+        writer.write("\t\t\t\"iteration\": %d,\n", stageSwitch.iteration);
+        writer.write("\t\t\t\"timestamp\": %d,\n", stageSwitch.timestamp);
+        writer.write("\t\t\t\"fromStage\": \"%s\",\n", stageSwitch.fromStage);
+        writer.write("\t\t\t\"toStage\": %s,\n",
+            (stageSwitch.toStage == null) ? "null" : "\"" + stageSwitch.toStage + "\"");
+        writer.write("\t\t\t\"reason\": \"%s\",\n", stageSwitch.reason);
+        writer.write("\t\t\t\"removedCharacters\": %d,\n", stageSwitch.removedCharacters);
+        writer.write("\t\t\t\"checks\": %d,\n", stageSwitch.checks);
+        writer.write("\t\t\t\"time\": %d,\n", stageSwitch.time);
+        writer.write("\t\t\t\"charactersPerCheck\": %s,\n",
+            String.format(Locale.US, "%.2f", stageSwitch.getCharactersPerCheck()));
+        writer.write("\t\t\t\"charactersPerSecond\": %s\n",
+            String.format(Locale.US, "%.2f", stageSwitch.getCharactersPerSecond()));
 
         writer.write("\t\t}");
       }
@@ -682,6 +1364,83 @@ public final class ReductionRun {
 
     writer.write("\t\"timeInTestFunction\": %d,\n", this.timeInTestFunction);
 
+    if (this.testTimeout != TestFunction.NO_TIMEOUT) {
+      writer.write("\t\"testTimeout\": %d,\n", this.testTimeout);
+    }
+
+    if (this.adaptiveTimeoutFactor > 0) {
+      writer.write("\t\"adaptiveTimeout\": %s,\n",
+          String.format(Locale.US, "%.2f", this.adaptiveTimeoutFactor));
+    }
+
+    if (this.testTimeout != TestFunction.NO_TIMEOUT || this.adaptiveTimeoutFactor > 0) {
+      writer.write("\t\"timeoutOutcome\": \"%s\",\n", this.timeoutOutcome);
+    }
+
+    // quantiles of the verification times
+    {
+      writer.write("\t\"verificationTimeQuantiles\": {");
+
+      boolean first = true;
+
+      for (final P2QuantileEstimator quantileEstimator : this.verificationTimeQuantiles) {
+        if (first) {
+          writer.write("\n");
+          first = false;
+        } else {
+          writer.write(",\n");
+        }
+
+        final double estimate = quantileEstimator.estimate();
+
+        writer.write("\t\t\"p%s\": %s",
+            String.format(Locale.US, "%.0f", quantileEstimator.getQuantile() * 100),
+            Double.isNaN(estimate) ? "null" : String.format(Locale.US, "%.1f", estimate));
+      }
+
+      writer.write("\n\t},\n");
+    }
+
+    writer.write("\t\"numberOfTimeouts\": %d,\n", this.numberOfTimeouts);
+
+    if (this.cache != null) {
+      writer.write("\t\"cache\": {\n");
+
+      writer.write("\t\t\"entries\": %d,\n", this.cache.size());
+      writer.write("\t\t\"estimatedMemory\": %d,\n", getEstimatedCacheMemory());
+      writer.write("\t\t\"memoryBudget\": %s,\n",
+          (this.cacheMemoryBudget == -1) ? "null" : String.valueOf(this.cacheMemoryBudget));
+      writer.write("\t\t\"hits\": %d,\n", this.cacheHits);
+      writer.write("\t\t\"misses\": %d,\n", this.cacheMisses);
+      writer.write("\t\t\"evictions\": %d,\n", this.cache.getNumberOfEvictions());
+      writer.write("\t\t\"invalidations\": %d,\n", this.cache.getNumberOfInvalidations());
+      writer.write("\t\t\"invalidationTime\": %d,\n", this.cache.getInvalidationTime());
+      writer.write("\t\t\"verifyFingerprints\": %s,\n", this.verifyFingerprints);
+      writer.write("\t\t\"fingerprintCollisions\": %d", this.fingerprintCollisions);
+
+      if (getConfigurationCache() != null) {
+        writer.write(",\n");
+        writer.write("\t\t\"failingConfigurations\": %d,\n", this.configurationCache.size());
+        writer.write("\t\t\"configurationLookups\": %d,\n",
+            this.configurationCache.getNumberOfLookups());
+        writer.write("\t\t\"configurationHits\": %d",
+            this.configurationCache.getNumberOfHits());
+      }
+
+      if (this.persistentCache != null) {
+        writer.write(",\n");
+        writer.write("\t\t\"persistentHits\": %d,\n", this.persistentCacheHits);
+        writer.write("\t\t\"persistentLoaded\": %d,\n",
+            this.persistentCache.getNumberOfLoadedRecords());
+        writer.write("\t\t\"persistentAppended\": %d",
+            this.persistentCache.getNumberOfAppendedRecords());
+      }
+
+      writer.write("\n");
+
+      writer.write("\t},\n");
+    }
+
     writer.write("\t\"numberOfChecks\": %d\n", this.numberOfChecks);
 
     writer.write("}\n");
@@ -689,8 +1448,111 @@ public final class ReductionRun {
     writer.close();
   }
 
-  private final boolean resultInCache(final String program) {
-    return this.cache != null && this.cache.containsKey(program);
+  private final Fingerprint fingerprint(final String program) {
+    if (this.cache == null) {
+      return null;
+    }
+
+    return Fingerprint.of(program, this.verifyFingerprints);
+  }
+
+  private final boolean resultInCache(final Fingerprint fingerprint) {
+    if (this.cache == null) {
+      return false;
+    }
+
+    if (!this.verifyFingerprints) {
+      return this.cache.containsKey(fingerprint);
+    }
+
+    final Fingerprint cachedFingerprint = this.cache.getStoredKey(fingerprint);
+
+    if (cachedFingerprint == null) {
+      return false;
+    }
+
+    if (!cachedFingerprint.matches(fingerprint)) {
+      // two different programs with the same fingerprint -> replace the cached entry
+      ++this.fingerprintCollisions;
+      this.cache.remove(cachedFingerprint);
+
+      printMessage(getTimestamp(), "WARNING: fingerprint collision (%s)", fingerprint);
+
+      return false;
+    }
+
+    return true;
+  }
+
+  // only called where a cached result is actually used, so that programs that are looked up
+  // several times (e.g., during parallel evaluation) are counted once
+  private final boolean countCacheLookup(final boolean hit) {
+    if (this.cache != null) {
+      if (hit) {
+        ++this.cacheHits;
+      } else {
+        ++this.cacheMisses;
+      }
+    }
+
+    return hit;
+  }
+
+  // returns the result from the cache file (or 'null' if there is none); the cache file only
+  // stores fingerprints, i.e., its results cannot be verified and are not used with
+  // 'verifyFingerprints'
+  private final Boolean persistedResult(final Fingerprint fingerprint) {
+    if (this.persistentCache == null || this.verifyFingerprints) {
+      return null;
+    }
+
+    return this.persistentCache.lookup(fingerprint);
+  }
+
+  // a failing result is simply added to the in-memory cache, but a successful one is a reduction
+  // step and is therefore recorded and committed like the result of a check (e.g., so that the
+  // result file and the reduction result are updated)
+  private final boolean usePersistedResult(final String program, final Fingerprint fingerprint,
+      final boolean triggersBug) {
+    ++this.persistentCacheHits;
+
+    if (!triggersBug) {
+      this.cache.put(fingerprint, false);
+      return false;
+    }
+
+    if (this.testFunction instanceof ParallelTestFunction) {
+      ((ParallelTestFunction) this.testFunction).record(program, true);
+    }
+
+    final long now = System.currentTimeMillis();
+    commit(program, fingerprint, true, new Check(true, false, now, now, true));
+
+    return true;
+  }
+
+  public final long getEstimatedCacheMemory() {
+    if (this.cache == null) {
+      return 0;
+    }
+
+    return this.cache.getWeight();
+  }
+
+  public final int getNumberOfCacheHits() {
+    return this.cacheHits;
+  }
+
+  public final int getNumberOfCacheMisses() {
+    return this.cacheMisses;
+  }
+
+  public final long getNumberOfCacheEvictions() {
+    return (this.cache == null) ? 0 : this.cache.getNumberOfEvictions();
+  }
+
+  public final long getNumberOfCacheInvalidations() {
+    return (this.cache == null) ? 0 : this.cache.getNumberOfInvalidations();
   }
 
 }
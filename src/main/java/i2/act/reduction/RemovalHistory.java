@@ -0,0 +1,286 @@
+package i2.act.reduction;
+
+import i2.act.packrat.cst.Node;
+import i2.act.peg.symbols.ParserSymbol;
+import i2.act.reduction.lists.ListReductionCallback;
+import i2.act.util.FileUtil;
+import i2.act.util.Fingerprint;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// statistics of how often the nodes of each grammar symbol could be removed, persisted in a file
+// that is shared between reductions with the same grammar; the reducers use the removal rates to
+// try the removals that are most likely to succeed first
+//
+// every check of a list reduction counts as an attempt for each node that it tries to remove (see
+// 'recordChecks'), i.e., the outcome of a check is attributed to all of its removed nodes
+//
+// the file is a text file with one line per symbol (name, number of attempts, number of removals);
+// the statistics of a run are merged into the file at the end of the run, i.e., the file can be
+// shared by several *RedPEG* processes
+public final class RemovalHistory {
+
+  private static final String HEADER = "# RedPEG removal history";
+
+  private static final class Statistics {
+
+    private long attempts;
+    private long removals;
+
+  }
+
+  private final String fileName;
+  private final String grammarIdentity;
+
+  // statistics from the file (including the ones of this run)
+  private final Map<String, Statistics> statistics;
+
+  // statistics of this run (that have not been written to the file yet)
+  private final Map<String, Statistics> newStatistics;
+
+  public RemovalHistory(final String fileName, final String grammar) {
+    this.fileName = fileName;
+
+    final Fingerprint grammarFingerprint = Fingerprint.of(grammar);
+    this.grammarIdentity =
+        String.format("%016x%016x", grammarFingerprint.high, grammarFingerprint.low);
+
+    this.statistics = new TreeMap<>();
+    this.newStatistics = new TreeMap<>();
+
+    if (FileUtil.fileExists(fileName)) {
+      try (final FileChannel channel = FileChannel.open(Paths.get(fileName),
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+          final FileLock lock = channel.lock()) {
+        read(channel, this.statistics);
+      } catch (final IOException exception) {
+        throw new RuntimeException(
+            String.format("unable to read removal history '%s'", fileName), exception);
+      }
+    }
+  }
+
+  // returns the estimated probability that a node with the symbol of the given node can be removed
+  // (nodes of symbols without statistics have a probability of 0.5)
+  public final double getRemovalProbability(final Node<?> node) {
+    final Statistics symbolStatistics = this.statistics.get(getSymbolName(node));
+
+    if (symbolStatistics == null) {
+      return 0.5;
+    }
+
+    // Laplace smoothing, so that a few attempts do not lead to extreme probabilities
+    return (symbolStatistics.removals + 1.0) / (symbolStatistics.attempts + 2.0);
+  }
+
+  // returns the nodes by decreasing removal probability (nodes with the same probability keep their
+  // order), so that a list reduction tries to remove the most promising nodes together
+  public final List<Node<?>> sortByRemovalProbability(final List<Node<?>> nodes) {
+    final Map<Node<?>, Double> probabilities = new IdentityHashMap<>();
+    for (final Node<?> node : nodes) {
+      probabilities.put(node, getRemovalProbability(node));
+    }
+
+    final List<Node<?>> sortedNodes = new ArrayList<>(nodes);
+    sortedNodes.sort((node1, node2) ->
+        -Double.compare(probabilities.get(node1), probabilities.get(node2)));
+
+    return sortedNodes;
+  }
+
+  // returns a callback that records the outcome of each check of a list reduction: the nodes that a
+  // candidate removes from the last passing list (initially, the given nodes) count as an attempt
+  // each, and as a removal if the candidate passes
+  //
+  // NOTE: if a candidate that removes several nodes fails, all of them count as failed attempts,
+  // although some of them may be removable on their own
+  public final ListReductionCallback<Node<?>> recordChecks(final List<Node<?>> nodes,
+      final ListReductionCallback<Node<?>> callback) {
+    return new ListReductionCallback<Node<?>>() {
+
+      private Set<Node<?>> passingNodes = identitySet(nodes);
+
+      @Override
+      public final boolean test(final List<Node<?>> list) {
+        final boolean triggersBug = callback.test(list);
+        recordCheck(list, triggersBug);
+
+        return triggersBug;
+      }
+
+      @Override
+      public final int testFirst(final List<List<Node<?>>> lists) {
+        final int firstIndex = callback.testFirst(lists);
+
+        // all lists before the first successful one have failed (the outcomes of later lists are
+        // not known)
+        final int numberOfFailingLists = (firstIndex == -1) ? lists.size() : firstIndex;
+        for (int index = 0; index < numberOfFailingLists; ++index) {
+          recordCheck(lists.get(index), false);
+        }
+
+        if (firstIndex != -1) {
+          recordCheck(lists.get(firstIndex), true);
+        }
+
+        return firstIndex;
+      }
+
+      private final void recordCheck(final List<Node<?>> list, final boolean triggersBug) {
+        final Set<Node<?>> candidateNodes = identitySet(list);
+
+        for (final Node<?> node : this.passingNodes) {
+          if (!candidateNodes.contains(node)) {
+            record(node, triggersBug);
+          }
+        }
+
+        if (triggersBug) {
+          this.passingNodes = candidateNodes;
+        }
+      }
+
+    };
+  }
+
+  private static final Set<Node<?>> identitySet(final List<Node<?>> nodes) {
+    final Set<Node<?>> set = Collections.newSetFromMap(new IdentityHashMap<>());
+    set.addAll(nodes);
+
+    return set;
+  }
+
+  public final void record(final Node<?> node, final boolean removed) {
+    final String symbolName = getSymbolName(node);
+
+    record(this.statistics, symbolName, 1, removed ? 1 : 0);
+    record(this.newStatistics, symbolName, 1, removed ? 1 : 0);
+  }
+
+  private static final void record(final Map<String, Statistics> statistics,
+      final String symbolName, final long attempts, final long removals) {
+    final Statistics symbolStatistics =
+        statistics.computeIfAbsent(symbolName, (name) -> new Statistics());
+
+    symbolStatistics.attempts += attempts;
+    symbolStatistics.removals += removals;
+  }
+
+  // list items and their (only) children are counted as the symbol of the child
+  private static final String getSymbolName(final Node<?> node) {
+    Node<?> symbolNode = node;
+
+    while (symbolNode.getSymbol() == ParserSymbol.LIST_ITEM
+        && symbolNode.numberOfChildren() == 1) {
+      symbolNode = symbolNode.getChild(0);
+    }
+
+    return symbolNode.getSymbol().getName();
+  }
+
+  // merges the statistics of this run into the file (another process may have updated the file
+  // since it has been read)
+  public final void save() {
+    if (this.newStatistics.isEmpty()) {
+      return;
+    }
+
+    FileUtil.createPathIfNotExists(this.fileName);
+
+    try (final FileChannel channel = FileChannel.open(Paths.get(this.fileName),
+        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        final FileLock lock = channel.lock()) {
+      final Map<String, Statistics> mergedStatistics = new TreeMap<>();
+      read(channel, mergedStatistics);
+
+      for (final Map.Entry<String, Statistics> entry : this.newStatistics.entrySet()) {
+        final Statistics symbolStatistics = entry.getValue();
+        record(mergedStatistics, entry.getKey(),
+            symbolStatistics.attempts, symbolStatistics.removals);
+      }
+
+      channel.truncate(0);
+      channel.position(0);
+
+      // NOTE: the writer must not be closed, since this would close the channel (and release the
+      // lock) before the file has been written completely
+      final Writer writer =
+          new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+
+      writer.write(String.format("%s %s\n", HEADER, this.grammarIdentity));
+
+      for (final Map.Entry<String, Statistics> entry : mergedStatistics.entrySet()) {
+        final Statistics symbolStatistics = entry.getValue();
+        writer.write(String.format("%s\t%d\t%d\n",
+            entry.getKey(), symbolStatistics.attempts, symbolStatistics.removals));
+      }
+
+      writer.flush();
+    } catch (final IOException exception) {
+      throw new RuntimeException(
+          String.format("unable to write removal history '%s'", this.fileName), exception);
+    }
+
+    this.newStatistics.clear();
+  }
+
+  private final void read(final FileChannel channel, final Map<String, Statistics> statistics)
+      throws IOException {
+    if (channel.size() == 0) {
+      return;
+    }
+
+    channel.position(0);
+
+    // NOTE: the reader is not closed for the same reason as the writer in 'save'
+    final BufferedReader reader = new BufferedReader(
+        new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+
+    final String header = reader.readLine();
+
+    if (header == null || !header.startsWith(HEADER)) {
+      throw new IOException("not a removal history");
+    }
+
+    if (!header.equals(String.format("%s %s", HEADER, this.grammarIdentity))) {
+      throw new IOException("removal history of a different grammar");
+    }
+
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.isEmpty()) {
+        continue;
+      }
+
+      final String[] fields = line.split("\t");
+
+      if (fields.length != 3) {
+        throw new IOException(String.format("malformed line '%s'", line));
+      }
+
+      try {
+        record(statistics, fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+      } catch (final NumberFormatException exception) {
+        throw new IOException(String.format("malformed line '%s'", line), exception);
+      }
+    }
+  }
+
+}
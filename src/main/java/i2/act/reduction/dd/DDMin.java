@@ -1,12 +1,10 @@
 package i2.act.reduction.dd;
 
 import i2.act.reduction.lists.ListReductionCallback;
+import i2.act.reduction.util.LongHashSet;
 
 import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.stream.IntStream;
 
 public final class DDMin<E> extends DDVariant<E> {
@@ -15,6 +13,7 @@ public final class DDMin<E> extends DDVariant<E> {
   public static final boolean DEFAULT_REDUCE_TO_COMPLEMENT = true;
   public static final boolean DEFAULT_REVERSE_SUBSETS = false;
   public static final boolean DEFAULT_REVERSE_COMPLEMENTS = false;
+  public static final boolean DEFAULT_SPECULATIVE = false;
 
   private final boolean reduceToSubset;
   private final boolean reduceToComplement;
@@ -22,6 +21,10 @@ public final class DDMin<E> extends DDVariant<E> {
   private final boolean reverseSubsets;
   private final boolean reverseComplements;
 
+  // if set, all subsets (resp. complements) of one granularity level are passed to the callback
+  // at once, which may then check them concurrently
+  private final boolean speculative;
+
   public DDMin() {
     this(DEFAULT_REDUCE_TO_SUBSET, DEFAULT_REDUCE_TO_COMPLEMENT,
         DEFAULT_REVERSE_SUBSETS, DEFAULT_REVERSE_COMPLEMENTS);
@@ -29,10 +32,18 @@ public final class DDMin<E> extends DDVariant<E> {
 
   public DDMin(final boolean reduceToSubset, final boolean reduceToComplement,
       final boolean reverseSubsets, final boolean reverseComplements) {
+    this(reduceToSubset, reduceToComplement, reverseSubsets, reverseComplements,
+        DEFAULT_SPECULATIVE);
+  }
+
+  public DDMin(final boolean reduceToSubset, final boolean reduceToComplement,
+      final boolean reverseSubsets, final boolean reverseComplements,
+      final boolean speculative) {
     this.reduceToSubset = reduceToSubset;
     this.reduceToComplement = reduceToComplement;
     this.reverseSubsets = reverseSubsets;
     this.reverseComplements = reverseComplements;
+    this.speculative = speculative;
   }
 
   @Override
@@ -45,18 +56,18 @@ public final class DDMin<E> extends DDVariant<E> {
       }
     }
 
-    final BitSet initialConfiguration = new BitSet(list.size());
-    initialConfiguration.flip(0, list.size());
+    final Configuration initialConfiguration = Configuration.all(list.size());
 
-    final Set<BitSet> failCache = new HashSet<>();
+    // the configurations are identified by their hashes
+    final LongHashSet failCache = new LongHashSet();
 
     final List<E> reduced = ddMin(list, initialConfiguration, 2, failCache, callback);
-    return reduced;
+    return new ArrayList<>(reduced);
   }
 
-  private final List<E> ddMin(final List<E> list, final BitSet configuration, final int stepSize,
-      final Set<BitSet> failCache, final ListReductionCallback<E> callback) {
-    final int size = configuration.cardinality();
+  private final List<E> ddMin(final List<E> list, final Configuration configuration,
+      final int stepSize, final LongHashSet failCache, final ListReductionCallback<E> callback) {
+    final int size = configuration.size();
 
     if (size < 2) {
       final List<E> current = applyConfiguration(list, configuration);
@@ -64,39 +75,43 @@ public final class DDMin<E> extends DDVariant<E> {
     }
 
     if (this.reduceToSubset) {
+      final List<Configuration> subsetConfigurations = new ArrayList<>();
+
       final IntStream subsetIndices = getIndices(stepSize, this.reverseSubsets);
       for (final int subsetIndex : (Iterable<Integer>) subsetIndices::iterator) {
-        final BitSet subsetConfiguration = subset(configuration, stepSize, subsetIndex);
+        if (!failCache.contains(subsetHash(configuration, stepSize, subsetIndex))) {
+          subsetConfigurations.add(subset(configuration, stepSize, subsetIndex));
+        }
+      }
 
-        if (!failCache.contains(subsetConfiguration)) {
-          final List<E> subset = applyConfiguration(list, subsetConfiguration);
+      final int successfulIndex =
+          testFirst(list, subsetConfigurations, failCache, callback, this.speculative);
 
-          if (callback.test(subset)) {
-            return ddMin(list, subsetConfiguration, 2, failCache, callback);
-          } else {
-            failCache.add(subsetConfiguration);
-          }
-        }
+      if (successfulIndex != -1) {
+        final Configuration subsetConfiguration = subsetConfigurations.get(successfulIndex);
+        return ddMin(list, subsetConfiguration, 2, failCache, callback);
       }
     }
 
     // for n=2, complement 1 equals subset 2 and vice versa
     if (stepSize != 2 && this.reduceToComplement) {
+      final List<Configuration> complementConfigurations = new ArrayList<>();
 
       final IntStream complementIndices = getIndices(stepSize, this.reverseComplements);
       for (final int complementIndex : (Iterable<Integer>) complementIndices::iterator) {
-        final BitSet complementConfiguration = complement(configuration, stepSize, complementIndex);
+        if (!failCache.contains(complementHash(configuration, stepSize, complementIndex))) {
+          complementConfigurations.add(complement(configuration, stepSize, complementIndex));
+        }
+      }
 
-        if (!failCache.contains(complementConfiguration)) {
-          final List<E> complement = applyConfiguration(list, complementConfiguration);
+      final int successfulIndex =
+          testFirst(list, complementConfigurations, failCache, callback, this.speculative);
 
-          if (callback.test(complement)) {
-            final int newStepSize = Math.max(stepSize - 1, 2);
-            return ddMin(list, complementConfiguration, newStepSize, failCache, callback);
-          } else {
-            failCache.add(complementConfiguration);
-          }
-        }
+      if (successfulIndex != -1) {
+        final Configuration complementConfiguration =
+            complementConfigurations.get(successfulIndex);
+        final int newStepSize = Math.max(stepSize - 1, 2);
+        return ddMin(list, complementConfiguration, newStepSize, failCache, callback);
       }
     }
 
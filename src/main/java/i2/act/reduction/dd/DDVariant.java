@@ -2,90 +2,298 @@ package i2.act.reduction.dd;
 
 import i2.act.reduction.lists.ListReduction;
 import i2.act.reduction.lists.ListReductionCallback;
+import i2.act.reduction.util.LongHashSet;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.stream.IntStream;
 
 public abstract class DDVariant<E> implements ListReduction<E> {
 
-  @Override
-  public abstract List<E> reduce(final List<E> list, final ListReductionCallback<E> callback,
-      final boolean testEmptyList);
+  // a configuration selects elements of a list; it is stored as a sequence of disjoint intervals of
+  // element indices (in ascending order), i.e., subsets and complements of a configuration only
+  // take time and space in the number of its intervals, not in the number of its elements
+  //
+  // the hash of a configuration is the XOR of the (random) keys of its elements; with the prefix
+  // hashes of the list and of the intervals, the hash of a contiguous part of a configuration can
+  // be computed in logarithmic time, i.e., without materializing the part
+  protected static final class Configuration {
+
+    private static final long SEED = 0x4444436F6E666967L;
+
+    // prefix hashes of the element keys of the whole list (shared by all of its configurations)
+    private final long[] prefixHashes;
+
+    // begin (inclusive) and end (exclusive) of each interval
+    private final int[] intervals;
 
-  protected final List<E> applyConfiguration(final List<E> list, final BitSet configuration) {
-    final List<E> current = new ArrayList<>(configuration.cardinality());
+    // number of selected elements before each interval (and in total)
+    private final int[] offsets;
 
-    for (int index = 0; index < configuration.size(); ++index) {
-      if (configuration.get(index)) {
-        current.add(list.get(index));
+    // XOR of the keys of the selected elements before each interval (and of all of them)
+    private final long[] hashes;
+
+    private Configuration(final long[] prefixHashes, final int[] intervals,
+        final int numberOfIntervals) {
+      this.prefixHashes = prefixHashes;
+      this.intervals = Arrays.copyOf(intervals, 2 * numberOfIntervals);
+
+      this.offsets = new int[numberOfIntervals + 1];
+      this.hashes = new long[numberOfIntervals + 1];
+
+      for (int interval = 0; interval < numberOfIntervals; ++interval) {
+        final int begin = this.intervals[2 * interval];
+        final int end = this.intervals[2 * interval + 1];
+
+        this.offsets[interval + 1] = this.offsets[interval] + (end - begin);
+        this.hashes[interval + 1] =
+            this.hashes[interval] ^ prefixHashes[end] ^ prefixHashes[begin];
       }
     }
 
-    return current;
-  }
+    // the configuration that selects all elements of a list with the given size
+    public static final Configuration all(final int size) {
+      final long[] prefixHashes = new long[size + 1];
 
-  protected final BitSet subset(final BitSet configuration, final int stepSize,
-      final int subsetIndex) {
-    final BitSet subsetConfiguration = new BitSet(configuration.size());
-
-    final int subsetSize = subsetSize(configuration.cardinality(), stepSize);
+      for (int index = 0; index < size; ++index) {
+        prefixHashes[index + 1] = prefixHashes[index] ^ key(index);
+      }
 
-    final int firstActualIndex = subsetIndex * subsetSize;
-    final int lastActualIndex;
-    {
-      if (subsetIndex == stepSize - 1) {
-        lastActualIndex = configuration.cardinality() - 1;
+      if (size == 0) {
+        return new Configuration(prefixHashes, new int[0], 0);
       } else {
-        lastActualIndex = (subsetIndex + 1) * subsetSize - 1;
+        return new Configuration(prefixHashes, new int[] {0, size}, 1);
       }
     }
 
-    int actualIndex = 0;
+    private static final long key(final int index) {
+      // finalizer of SplitMix64
+      long key = SEED + index * 0x9E3779B97F4A7C15L;
+      key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+      key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+      return key ^ (key >>> 31);
+    }
+
+    private final int numberOfIntervals() {
+      return this.offsets.length - 1;
+    }
+
+    public final int size() {
+      return this.offsets[numberOfIntervals()];
+    }
+
+    public final long hash() {
+      return this.hashes[numberOfIntervals()];
+    }
+
+    // hash of the selected elements at the positions 'from' (inclusive) to 'to' (exclusive)
+    public final long hash(final int from, final int to) {
+      return prefixHash(from) ^ prefixHash(to);
+    }
 
-    for (int index = 0; index < configuration.size(); ++index) {
-      if (configuration.get(index)) {
-        if (actualIndex >= firstActualIndex && actualIndex <= lastActualIndex) {
-          subsetConfiguration.set(index);
+    // index (in the list) of the selected element at the given position
+    public final int getIndex(final int position) {
+      assert (position >= 0 && position < size());
+
+      final int interval = findInterval(position);
+      return this.intervals[2 * interval] + (position - this.offsets[interval]);
+    }
+
+    // selects the elements at the positions 'from' (inclusive) to 'to' (exclusive)
+    public final Configuration select(final int from, final int to) {
+      return select(new int[] {from, to});
+    }
+
+    // selects all elements except the ones at the positions 'from' (inclusive) to 'to' (exclusive)
+    public final Configuration remove(final int from, final int to) {
+      return select(new int[] {0, from, to, size()});
+    }
+
+    // selects the elements in the given (disjoint and ascending) ranges of positions; each range is
+    // given by its begin (inclusive) and end (exclusive)
+    public final Configuration select(final int[] ranges) {
+      final int[] intervals = new int[2 * (numberOfIntervals() + ranges.length / 2)];
+      int numberOfIntervals = 0;
+
+      for (int range = 0; range < ranges.length; range += 2) {
+        final int from = ranges[range];
+        final int to = ranges[range + 1];
+
+        if (from == to) {
+          continue;
+        }
+
+        for (int interval = findInterval(from); this.offsets[interval] < to; ++interval) {
+          final int offset = this.offsets[interval];
+          final int begin = this.intervals[2 * interval];
+          final int end = this.intervals[2 * interval + 1];
+
+          final int selectedBegin = begin + Math.max(from - offset, 0);
+          final int selectedEnd = Math.min(end, begin + (to - offset));
+
+          if (numberOfIntervals > 0 && intervals[2 * numberOfIntervals - 1] == selectedBegin) {
+            // adjacent to the previous interval -> merge them
+            intervals[2 * numberOfIntervals - 1] = selectedEnd;
+          } else {
+            intervals[2 * numberOfIntervals] = selectedBegin;
+            intervals[2 * numberOfIntervals + 1] = selectedEnd;
+            ++numberOfIntervals;
+          }
         }
+      }
+
+      return new Configuration(this.prefixHashes, intervals, numberOfIntervals);
+    }
+
+    private final long prefixHash(final int position) {
+      assert (position >= 0 && position <= size());
+
+      if (position == size()) {
+        return hash();
+      }
+
+      final int interval = findInterval(position);
+      final int begin = this.intervals[2 * interval];
+      final int index = begin + (position - this.offsets[interval]);
+
+      return this.hashes[interval] ^ this.prefixHashes[index] ^ this.prefixHashes[begin];
+    }
 
-        ++actualIndex;
+    // returns the interval that contains the given position
+    private final int findInterval(final int position) {
+      int low = 0;
+      int high = numberOfIntervals() - 1;
+
+      while (low < high) {
+        final int middle = (low + high + 1) >>> 1;
+
+        if (this.offsets[middle] <= position) {
+          low = middle;
+        } else {
+          high = middle - 1;
+        }
       }
+
+      return low;
     }
 
-    return subsetConfiguration;
   }
 
-  protected final BitSet complement(final BitSet configuration, final int stepSize,
-      final int complementIndex) {
-    final BitSet complementConfiguration = new BitSet(configuration.size());
+  // read-only view of the selected elements of a list
+  private static final class SelectedElements<E> extends AbstractList<E> implements RandomAccess {
 
-    final int subsetSize = subsetSize(configuration.cardinality(), stepSize);
+    private final List<E> list;
+    private final Configuration configuration;
 
-    final int firstActualIndex = complementIndex * subsetSize;
-    final int lastActualIndex;
-    {
-      if (complementIndex == stepSize - 1) {
-        lastActualIndex = configuration.cardinality() - 1;
-      } else {
-        lastActualIndex = (complementIndex + 1) * subsetSize - 1;
+    public SelectedElements(final List<E> list, final Configuration configuration) {
+      this.list = list;
+      this.configuration = configuration;
+    }
+
+    @Override
+    public final E get(final int position) {
+      if (position < 0 || position >= size()) {
+        throw new IndexOutOfBoundsException(String.valueOf(position));
       }
+
+      return this.list.get(this.configuration.getIndex(position));
     }
 
-    int actualIndex = 0;
+    @Override
+    public final int size() {
+      return this.configuration.size();
+    }
 
-    for (int index = 0; index < configuration.size(); ++index) {
-      if (configuration.get(index)) {
-        if (actualIndex < firstActualIndex || actualIndex > lastActualIndex) {
-          complementConfiguration.set(index);
-        }
+  }
 
-        ++actualIndex;
+  @Override
+  public abstract List<E> reduce(final List<E> list, final ListReductionCallback<E> callback,
+      final boolean testEmptyList);
+
+  // returns a view of the selected elements, i.e., the elements are not copied (the list must not
+  // be modified while the view is in use)
+  protected final List<E> applyConfiguration(final List<E> list,
+      final Configuration configuration) {
+    return new SelectedElements<>(list, configuration);
+  }
+
+  // returns the index of the first configuration that passes the test (or -1 if there is no such
+  // configuration) and adds all configurations before it to the fail cache; if 'speculative' is
+  // set, all configurations are handed to the callback at once
+  protected final int testFirst(final List<E> list, final List<Configuration> configurations,
+      final LongHashSet failCache, final ListReductionCallback<E> callback,
+      final boolean speculative) {
+    int successfulIndex = -1;
+
+    if (speculative) {
+      final List<List<E>> candidates = new ArrayList<>(configurations.size());
+      for (final Configuration configuration : configurations) {
+        candidates.add(applyConfiguration(list, configuration));
+      }
+
+      successfulIndex = callback.testFirst(candidates);
+    } else {
+      for (int index = 0; index < configurations.size(); ++index) {
+        if (callback.test(applyConfiguration(list, configurations.get(index)))) {
+          successfulIndex = index;
+          break;
+        }
       }
     }
 
-    return complementConfiguration;
+    final int numberOfFailedConfigurations =
+        (successfulIndex == -1) ? configurations.size() : successfulIndex;
+
+    for (int index = 0; index < numberOfFailedConfigurations; ++index) {
+      failCache.add(configurations.get(index).hash());
+    }
+
+    return successfulIndex;
+  }
+
+  protected final Configuration subset(final Configuration configuration, final int stepSize,
+      final int subsetIndex) {
+    return configuration.select(
+        subsetBegin(configuration, stepSize, subsetIndex),
+        subsetEnd(configuration, stepSize, subsetIndex));
+  }
+
+  protected final Configuration complement(final Configuration configuration,
+      final int stepSize, final int complementIndex) {
+    return configuration.remove(
+        subsetBegin(configuration, stepSize, complementIndex),
+        subsetEnd(configuration, stepSize, complementIndex));
+  }
+
+  protected final long subsetHash(final Configuration configuration, final int stepSize,
+      final int subsetIndex) {
+    return configuration.hash(
+        subsetBegin(configuration, stepSize, subsetIndex),
+        subsetEnd(configuration, stepSize, subsetIndex));
+  }
+
+  protected final long complementHash(final Configuration configuration, final int stepSize,
+      final int complementIndex) {
+    return configuration.hash() ^ subsetHash(configuration, stepSize, complementIndex);
+  }
+
+  // position of the first element of the subset (inclusive)
+  protected final int subsetBegin(final Configuration configuration, final int stepSize,
+      final int subsetIndex) {
+    return subsetIndex * subsetSize(configuration.size(), stepSize);
+  }
+
+  // position behind the last element of the subset (exclusive)
+  protected final int subsetEnd(final Configuration configuration, final int stepSize,
+      final int subsetIndex) {
+    if (subsetIndex == stepSize - 1) {
+      return configuration.size();
+    } else {
+      return (subsetIndex + 1) * subsetSize(configuration.size(), stepSize);
+    }
   }
 
   protected final int subsetSize(final int size, final int stepSize) {
@@ -1,29 +1,39 @@
 package i2.act.reduction.dd;
 
 import i2.act.reduction.lists.ListReductionCallback;
+import i2.act.reduction.util.LongHashSet;
 
 import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 import java.util.stream.IntStream;
 
 public final class OPDD<E> extends DDVariant<E> {
 
   public static final boolean DEFAULT_REVERSE_SUBSETS = false;
   public static final boolean DEFAULT_REVERSE_COMPLEMENTS = false;
+  public static final boolean DEFAULT_SPECULATIVE = false;
 
   private final boolean reverseSubsets;
   private final boolean reverseComplements;
 
+  // if set, all subsets (resp. all remaining complements of the 'foldl') are passed to the
+  // callback at once, which may then check them concurrently
+  private final boolean speculative;
+
   public OPDD() {
     this(DEFAULT_REVERSE_SUBSETS, DEFAULT_REVERSE_COMPLEMENTS);
   }
 
   public OPDD(final boolean reverseSubsets, final boolean reverseComplements) {
+    this(reverseSubsets, reverseComplements, DEFAULT_SPECULATIVE);
+  }
+
+  public OPDD(final boolean reverseSubsets, final boolean reverseComplements,
+      final boolean speculative) {
     this.reverseSubsets = reverseSubsets;
     this.reverseComplements = reverseComplements;
+    this.speculative = speculative;
   }
 
   @Override
@@ -36,17 +46,17 @@ public final class OPDD<E> extends DDVariant<E> {
       }
     }
 
-    final BitSet initialConfiguration = new BitSet(list.size());
-    initialConfiguration.flip(0, list.size());
+    final Configuration initialConfiguration = Configuration.all(list.size());
 
-    final Set<BitSet> failCache = new HashSet<>();
+    // the configurations are identified by their hashes
+    final LongHashSet failCache = new LongHashSet();
 
-    return opdd(list, initialConfiguration, 2, failCache, callback);
+    return new ArrayList<>(opdd(list, initialConfiguration, 2, failCache, callback));
   }
 
-  private final List<E> opdd(final List<E> list, final BitSet configuration, final int stepSize,
-      final Set<BitSet> failCache, final ListReductionCallback<E> callback) {
-    final int size = configuration.cardinality();
+  private final List<E> opdd(final List<E> list, final Configuration configuration,
+      final int stepSize, final LongHashSet failCache, final ListReductionCallback<E> callback) {
+    final int size = configuration.size();
 
     if (size < 2) {
       final List<E> current = applyConfiguration(list, configuration);
@@ -55,19 +65,21 @@ public final class OPDD<E> extends DDVariant<E> {
 
     // reduce to subset
     {
+      final List<Configuration> subsetConfigurations = new ArrayList<>();
+
       final IntStream subsetIndices = getIndices(stepSize, this.reverseSubsets);
       for (final int subsetIndex : (Iterable<Integer>) subsetIndices::iterator) {
-        final BitSet subsetConfiguration = subset(configuration, stepSize, subsetIndex);
+        if (!failCache.contains(subsetHash(configuration, stepSize, subsetIndex))) {
+          subsetConfigurations.add(subset(configuration, stepSize, subsetIndex));
+        }
+      }
 
-        if (!failCache.contains(subsetConfiguration)) {
-          final List<E> subset = applyConfiguration(list, subsetConfiguration);
+      final int successfulIndex =
+          testFirst(list, subsetConfigurations, failCache, callback, this.speculative);
 
-          if (callback.test(subset)) {
-            return opdd(list, subsetConfiguration, 2, failCache, callback);
-          } else {
-            failCache.add(subsetConfiguration);
-          }
-        }
+      if (successfulIndex != -1) {
+        final Configuration subsetConfiguration = subsetConfigurations.get(successfulIndex);
+        return opdd(list, subsetConfiguration, 2, failCache, callback);
       }
     }
 
@@ -76,44 +88,104 @@ public final class OPDD<E> extends DDVariant<E> {
       return refine(list, configuration, stepSize, failCache, callback);
     }
 
+    if (this.speculative) {
+      return reduceToComplementSpeculatively(list, configuration, stepSize, failCache, callback);
+    }
+
     // reduce to complement
     {
-      final List<BitSet> subsets = allSubsets(configuration, stepSize);
+      // the subsets that have been removed by the 'foldl' so far; as the subsets are disjoint, the
+      // hash of the accumulator is updated by XOR-ing the hash of each removed subset
+      final boolean[] removedSubsets = new boolean[stepSize];
+      long reducedHash = configuration.hash();
 
-      List<BitSet> reduced = new ArrayList<>(subsets);
       int newStepSize = stepSize;
 
       // the 'for' loop realizes the 'foldl' over all subsets
       final IntStream subsetIndices = getIndices(stepSize, this.reverseComplements); // sic!
       for (final int subsetIndex : (Iterable<Integer>) subsetIndices::iterator) {
-        final BitSet subset = subsets.get(subsetIndex);
-
-        final List<BitSet> candidateConfigurations = new ArrayList<>(reduced);
-        candidateConfigurations.remove(subset);
+        final long candidateHash = reducedHash ^ subsetHash(configuration, stepSize, subsetIndex);
 
-        final BitSet candidateConfiguration = flatten(candidateConfigurations);
+        if (!failCache.contains(candidateHash)) {
+          removedSubsets[subsetIndex] = true;
 
-        if (!failCache.contains(candidateConfiguration)) {
+          final Configuration candidateConfiguration =
+              removeSubsets(configuration, stepSize, removedSubsets);
           final List<E> candidate = applyConfiguration(list, candidateConfiguration);
 
           if (callback.test(candidate)) {
-            reduced = candidateConfigurations;
+            reducedHash = candidateHash;
             newStepSize -= 1;
           } else {
-            failCache.add(candidateConfiguration);
+            removedSubsets[subsetIndex] = false;
+            failCache.add(candidateHash);
           }
         }
       }
 
-      final BitSet resultConfiguration = flatten(reduced);
+      final Configuration resultConfiguration =
+          removeSubsets(configuration, stepSize, removedSubsets);
       return refine(list, resultConfiguration, newStepSize, failCache, callback);
     }
   }
 
-  private final List<E> refine(final List<E> list, final BitSet configuration, final int stepSize,
-      final Set<BitSet> failCache, final ListReductionCallback<E> callback) {
-    if (stepSize < configuration.cardinality()) {
-      final int newStepSize = Math.min(configuration.cardinality(), 2 * stepSize);
+  private final List<E> reduceToComplementSpeculatively(final List<E> list,
+      final Configuration configuration, final int stepSize, final LongHashSet failCache,
+      final ListReductionCallback<E> callback) {
+    final int[] subsetIndices = getIndices(stepSize, this.reverseComplements).toArray(); // sic!
+
+    // the subsets are disjoint, hence removing a subset from the 'foldl' accumulator simply
+    // removes its elements (and XOR-s its hash)
+    final boolean[] removedSubsets = new boolean[stepSize];
+    long reducedHash = configuration.hash();
+
+    int newStepSize = stepSize;
+
+    int nextPosition = 0;
+    while (nextPosition < subsetIndices.length) {
+      // speculate that none of the remaining candidates succeeds, i.e., that all of them are
+      // derived from the current accumulator; after a success, the speculation restarts behind
+      // the successful candidate
+      final List<Configuration> candidateConfigurations = new ArrayList<>();
+      final List<Integer> candidatePositions = new ArrayList<>();
+
+      for (int position = nextPosition; position < subsetIndices.length; ++position) {
+        final int subsetIndex = subsetIndices[position];
+        final long candidateHash = reducedHash ^ subsetHash(configuration, stepSize, subsetIndex);
+
+        if (!failCache.contains(candidateHash)) {
+          removedSubsets[subsetIndex] = true;
+          candidateConfigurations.add(removeSubsets(configuration, stepSize, removedSubsets));
+          removedSubsets[subsetIndex] = false;
+
+          candidatePositions.add(position);
+        }
+      }
+
+      final int successfulIndex =
+          testFirst(list, candidateConfigurations, failCache, callback, this.speculative);
+
+      if (successfulIndex == -1) {
+        break;
+      }
+
+      final int successfulPosition = candidatePositions.get(successfulIndex);
+
+      removedSubsets[subsetIndices[successfulPosition]] = true;
+      reducedHash = candidateConfigurations.get(successfulIndex).hash();
+      newStepSize -= 1;
+
+      nextPosition = successfulPosition + 1;
+    }
+
+    final Configuration reduced = removeSubsets(configuration, stepSize, removedSubsets);
+    return refine(list, reduced, newStepSize, failCache, callback);
+  }
+
+  private final List<E> refine(final List<E> list, final Configuration configuration,
+      final int stepSize, final LongHashSet failCache, final ListReductionCallback<E> callback) {
+    if (stepSize < configuration.size()) {
+      final int newStepSize = Math.min(configuration.size(), 2 * stepSize);
       return opdd(list, configuration, newStepSize, failCache, callback);
     } else {
       final List<E> current = applyConfiguration(list, configuration);
@@ -121,27 +193,21 @@ public final class OPDD<E> extends DDVariant<E> {
     }
   }
 
-  private final List<BitSet> allSubsets(final BitSet configuration, final int stepSize) {
-    final List<BitSet> subsets = new ArrayList<>();
+  // selects all subsets of the configuration that are not marked as removed
+  private final Configuration removeSubsets(final Configuration configuration,
+      final int stepSize, final boolean[] removedSubsets) {
+    final int[] ranges = new int[2 * stepSize];
+    int numberOfRanges = 0;
 
     for (int subsetIndex = 0; subsetIndex < stepSize; ++subsetIndex) {
-      final BitSet subset = subset(configuration, stepSize, subsetIndex);
-      subsets.add(subset);
-    }
-
-    return subsets;
-  }
-
-  private final BitSet flatten(final List<BitSet> configurations) {
-    assert (configurations.size() > 0);
-
-    final BitSet flattened = new BitSet(configurations.get(0).size());
-
-    for (final BitSet configuration : configurations) {
-      flattened.or(configuration);
+      if (!removedSubsets[subsetIndex]) {
+        ranges[2 * numberOfRanges] = subsetBegin(configuration, stepSize, subsetIndex);
+        ranges[2 * numberOfRanges + 1] = subsetEnd(configuration, stepSize, subsetIndex);
+        ++numberOfRanges;
+      }
     }
 
-    return flattened;
+    return configuration.select(Arrays.copyOf(ranges, 2 * numberOfRanges));
   }
 
 }
@@ -0,0 +1,152 @@
+package i2.act.reduction.dd;
+
+import i2.act.reduction.lists.ListReduction;
+import i2.act.reduction.lists.ListReductionCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// probabilistic delta debugging: each element has a probability of being required (i.e., of being
+// part of the result); in each step, the elements with the lowest probabilities are removed such
+// that the expected number of removed elements is maximal, and the probabilities are updated
+// according to the outcome of the test (see Wang et al., "Probabilistic Delta Debugging", FSE'21)
+public final class ProbDD<E> implements ListReduction<E> {
+
+  public static final double DEFAULT_INITIAL_PROBABILITY = 0.1;
+
+  private final double initialProbability;
+
+  public ProbDD() {
+    this(DEFAULT_INITIAL_PROBABILITY);
+  }
+
+  public ProbDD(final double initialProbability) {
+    assert (initialProbability > 0 && initialProbability < 1);
+    this.initialProbability = initialProbability;
+  }
+
+  @Override
+  public final List<E> reduce(final List<E> list, final ListReductionCallback<E> callback,
+      final boolean testEmptyList) {
+    if (testEmptyList) {
+      final List<E> emptyList = new ArrayList<>();
+      if (callback.test(emptyList)) {
+        return emptyList;
+      }
+    }
+
+    final int size = list.size();
+
+    // the elements are identified by their indices; all elements in 'current' are kept
+    final double[] probabilities = new double[size];
+    Arrays.fill(probabilities, this.initialProbability);
+
+    List<Integer> current = new ArrayList<>(size);
+    for (int index = 0; index < size; ++index) {
+      current.add(index);
+    }
+
+    while (true) {
+      // the elements that may still be removed, by increasing probability (the sort is stable,
+      // i.e., elements with the same probability keep their order)
+      final List<Integer> candidates = new ArrayList<>();
+      for (final int index : current) {
+        if (probabilities[index] < 1) {
+          candidates.add(index);
+        }
+      }
+
+      candidates.sort((index1, index2) ->
+          Double.compare(probabilities[index1], probabilities[index2]));
+
+      // the empty list has either been checked already or must not be checked
+      final int maxNumberOfRemovedElements = Math.min(candidates.size(), current.size() - 1);
+
+      final int numberOfRemovedElements =
+          selectNumberOfRemovedElements(candidates, probabilities, maxNumberOfRemovedElements);
+
+      if (numberOfRemovedElements == 0) {
+        break;
+      }
+
+      final boolean[] removed = new boolean[size];
+      for (final int index : candidates.subList(0, numberOfRemovedElements)) {
+        removed[index] = true;
+      }
+
+      final List<Integer> reduced = new ArrayList<>(current.size() - numberOfRemovedElements);
+      final List<E> candidate = new ArrayList<>(current.size() - numberOfRemovedElements);
+      for (final int index : current) {
+        if (!removed[index]) {
+          reduced.add(index);
+          candidate.add(list.get(index));
+        }
+      }
+
+      if (callback.test(candidate)) {
+        current = reduced;
+      } else {
+        updateProbabilities(candidates.subList(0, numberOfRemovedElements), probabilities);
+      }
+    }
+
+    final List<E> result = new ArrayList<>(current.size());
+    for (final int index : current) {
+      result.add(list.get(index));
+    }
+
+    return result;
+  }
+
+  // returns the number 'k' such that removing the first 'k' candidates (i.e., the ones with the
+  // lowest probabilities) maximizes the expected number of removed elements, which is 'k' times
+  // the probability that none of the removed elements is required
+  private static final int selectNumberOfRemovedElements(final List<Integer> candidates,
+      final double[] probabilities, final int maxNumberOfRemovedElements) {
+    int bestNumberOfRemovedElements = 0;
+    double bestGain = 0;
+
+    double probabilityNoneRequired = 1;
+
+    for (int count = 1; count <= maxNumberOfRemovedElements; ++count) {
+      probabilityNoneRequired *= 1 - probabilities[candidates.get(count - 1)];
+
+      final double gain = count * probabilityNoneRequired;
+
+      // as the candidates are sorted by increasing probability, the gain only increases up to its
+      // maximum and decreases afterwards
+      if (gain <= bestGain) {
+        break;
+      }
+
+      bestNumberOfRemovedElements = count;
+      bestGain = gain;
+    }
+
+    return bestNumberOfRemovedElements;
+  }
+
+  // if removing the elements fails, at least one of them is required; thus, the probability of
+  // each of them is divided by the probability that at least one of them is required
+  private static final void updateProbabilities(final List<Integer> removedElements,
+      final double[] probabilities) {
+    if (removedElements.size() == 1) {
+      // the (only) element is definitely required
+      probabilities[removedElements.get(0)] = 1;
+      return;
+    }
+
+    double probabilityNoneRequired = 1;
+    for (final int index : removedElements) {
+      probabilityNoneRequired *= 1 - probabilities[index];
+    }
+
+    final double probabilityAnyRequired = 1 - probabilityNoneRequired;
+
+    for (final int index : removedElements) {
+      probabilities[index] = Math.min(probabilities[index] / probabilityAnyRequired, 1);
+    }
+  }
+
+}
@@ -18,11 +18,14 @@ import i2.act.reduction.dd.DDMin;
 import i2.act.reduction.lists.ListReduction;
 import i2.act.reduction.lists.ListReductionCallback;
 import i2.act.reduction.lists.ListReductionFactory;
+import i2.act.reduction.util.SubtreeWeights;
 import i2.act.reduction.util.TokenJoiner;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -477,14 +480,14 @@ public final class GTRReducer implements Reducer {
     Node<?> reduced = syntaxTree.cloneTree();
 
     int sizeBeforeIteration;
-    int sizeAfterIteration = size(reduced);
+    int sizeAfterIteration = reduced.size();
 
     do {
       sizeBeforeIteration = sizeAfterIteration;
 
       reduced = reductionIteration(reduced, run);
 
-      sizeAfterIteration = size(reduced);
+      sizeAfterIteration = reduced.size();
     } while (this.fixpoint && sizeAfterIteration < sizeBeforeIteration);
 
     return serialize(reduced);
@@ -528,6 +531,13 @@ public final class GTRReducer implements Reducer {
     return this.joiner.join(syntaxTree);
   }
 
+  // serializes the tree as if the replacements were applied (see 'applyReplacements')
+  private final String serialize(final Node<?> syntaxTree,
+      final Map<Node<?>, Node<?>> replacements) {
+    return this.joiner.joinWithSubstitutes(syntaxTree,
+        (node) -> replacements.containsKey(node) ? replacements.get(node) : node);
+  }
+
   private final Node<?> applySingleTransformation(final ReductionTemplate reductionTemplate,
       final Node<?> syntaxTree, final List<Node<?>> levelNodes, final ReductionRun run) {
     final boolean TEST_EMPTY_LIST = true;
@@ -552,10 +562,12 @@ public final class GTRReducer implements Reducer {
     }
 
     // we have to ensure that '+'-quantified lists keep at least one item; for this purpose, we
-    // gather all parents of the currently considered nodes that are '+' nodes and later check that
-    // these lists do not become empty
-    final Set<Node<?>> plusNodes = new LinkedHashSet<>();
+    // gather the items of all '+' nodes that may become empty (i.e., all of their items are deleted
+    // by the reduction template) and later check that at least one of these items is kept
+    final List<List<Node<?>>> deletablePlusLists = new ArrayList<>();
     {
+      final Set<Node<?>> plusNodes = new LinkedHashSet<>();
+
       for (final Node<?> replaceableNode : replaceableNodes) {
         if (replaceableNode.getSymbol() == ParserSymbol.LIST_ITEM) {
           final Node<?> parentNode = replaceableNode.getParent();
@@ -566,42 +578,45 @@ public final class GTRReducer implements Reducer {
           }
         }
       }
-    }
-
-    final ListReductionCallback<Node<?>> callback = (keptNodes) -> {
-      // get the replacements for the current configuration
-      final Map<Node<?>, Node<?>> currentReplacements = new HashMap<>();
-      {
-        for (final Node<?> replaceableNode : replaceableNodes) {
-          if (!keptNodes.contains(replaceableNode)) {
-            assert (replacements.containsKey(replaceableNode));
-            currentReplacements.put(replaceableNode, replacements.get(replaceableNode));
-          }
-        }
-      }
-
-      // check that all '+'-quantified lists keep at least one element
-      for (final Node<?> plusNode : plusNodes) {
-        boolean stillHasChild = false;
 
+      plus_nodes: for (final Node<?> plusNode : plusNodes) {
         for (final Node<?> listItem : plusNode.getChildren()) {
-          if (!currentReplacements.containsKey(listItem)
-              || currentReplacements.get(listItem) != null) {
-            stillHasChild = true;
-            break;
+          if (!replacements.containsKey(listItem) || replacements.get(listItem) != null) {
+            // this item is never deleted
+            continue plus_nodes;
           }
         }
 
-        if (!stillHasChild) {
-          return false;
-        }
+        deletablePlusLists.add(plusNode.getChildren());
       }
+    }
 
-      final Node<?> transformed = applyReplacements(syntaxTree, currentReplacements);
-      final String serialized = serialize(transformed);
+    // the candidates are serialized as if the replacements were applied, but without actually
+    // constructing the transformed trees
+    final ListReductionCallback<Node<?>> callback =
+        ListReductionCallback.forRun(run, (keptNodes) -> {
+          final Set<Node<?>> keptNodesSet = Collections.newSetFromMap(new IdentityHashMap<>());
+          keptNodesSet.addAll(keptNodes);
+
+          // check that all '+'-quantified lists keep at least one element
+          plus_lists: for (final List<Node<?>> listItems : deletablePlusLists) {
+            for (final Node<?> listItem : listItems) {
+              if (keptNodesSet.contains(listItem)) {
+                continue plus_lists;
+              }
+            }
+
+            return null;
+          }
 
-      return run.test(serialized);
-    };
+          return this.joiner.joinWithSubstitutes(syntaxTree, (node) -> {
+            if (replacements.containsKey(node) && !keptNodesSet.contains(node)) {
+              return replacements.get(node);
+            } else {
+              return node;
+            }
+          });
+        });
 
     final List<Node<?>> keptNodes =
         this.listReduction.reduce(replaceableNodes, callback, TEST_EMPTY_LIST);
@@ -647,6 +662,9 @@ public final class GTRReducer implements Reducer {
 
     Node<?> result = syntaxTree;
 
+    // the transformations never modify existing sub-trees, i.e., their weights stay valid
+    final SubtreeWeights weights = new SubtreeWeights();
+
     // based on the descriptions in the paper, the reduction template is only applied to the
     // original tree => we can "cache" its results so that we do not need to evaluate it more than
     // once
@@ -667,15 +685,13 @@ public final class GTRReducer implements Reducer {
         assert (reductionCandidates.containsKey(levelNode));
 
         for (final Node<?> replacement : reductionCandidates.get(levelNode)) {
-          if (size(replacement) >= size(currentReplacement)) {
+          if (size(replacement, weights) >= size(currentReplacement, weights)) {
             continue;
           }
 
           final Node<?> replacementClone = replacement.cloneTree();
           replacements.put(levelNode, replacementClone);
 
-          final Node<?> transformed = applyReplacements(syntaxTree, replacements);
-
           final boolean successfulTransformation;
 
           // if the replacement consists of hoisting the only child, the transformation is always
@@ -684,7 +700,8 @@ public final class GTRReducer implements Reducer {
               && currentReplacement.getChild(0) == replacement) {
             successfulTransformation = true;
           } else {
-            final String serialized = serialize(transformed);
+            // the transformed tree is only constructed if the transformation is successful
+            final String serialized = serialize(syntaxTree, replacements);
             successfulTransformation = run.test(serialized);
           }
 
@@ -692,7 +709,7 @@ public final class GTRReducer implements Reducer {
             improvementFound = true;
             currentReplacement = replacementClone;
 
-            result = transformed;
+            result = applyReplacements(syntaxTree, replacements);
           } else {
             replacements.put(levelNode, currentReplacement);
           }
@@ -703,11 +720,11 @@ public final class GTRReducer implements Reducer {
     return result;
   }
 
-  private final int size(final Node<?> replacement) {
+  private final int size(final Node<?> replacement, final SubtreeWeights weights) {
     if (replacement == null) {
       return 0;
     } else {
-      return replacement.size();
+      return weights.size(replacement);
     }
   }
 
@@ -756,6 +773,9 @@ public final class GTRReducer implements Reducer {
       return nodes;
     }
 
+    // the weights are only computed if terminal trees are skipped
+    final SubtreeWeights weights = new SubtreeWeights();
+
     syntaxTree.accept(new SyntaxTreeVisitor<Integer, Void>() {
 
       @Override
@@ -766,7 +786,7 @@ public final class GTRReducer implements Reducer {
             child.accept(this, currentLevel);
           }
         } else {
-          if (GTRReducer.this.skipTerminalTrees && node.numberOfTerminals() == 1) {
+          if (GTRReducer.this.skipTerminalTrees && weights.numberOfTerminals(node) == 1) {
             return null;
           }
 
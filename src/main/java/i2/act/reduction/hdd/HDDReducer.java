@@ -6,6 +6,8 @@ import i2.act.peg.symbols.ParserSymbol;
 import i2.act.peg.symbols.Symbol;
 import i2.act.reduction.ReductionRun;
 import i2.act.reduction.lists.ListReductionFactory;
+import i2.act.reduction.util.IncrementalJoiner;
+import i2.act.reduction.util.RemovalSet;
 import i2.act.reduction.util.TokenJoiner;
 
 import java.util.*;
@@ -95,7 +97,9 @@ public final class HDDReducer extends HDDVariant {
 
   @Override
   public final String reduce(final Node<?> syntaxTree, final ReductionRun run) {
-    final Set<Node<?>> removedNodes = new HashSet<>();
+    final IncrementalJoiner treeJoiner = createIncrementalJoiner(syntaxTree);
+    final RemovalSet removedNodes = treeJoiner.createRemovalSet();
+    final LevelIndex levels = new LevelIndex(treeJoiner);
 
     int sizeBeforeIteration;
     int sizeAfterIteration = syntaxTree.print().length();
@@ -103,17 +107,19 @@ public final class HDDReducer extends HDDVariant {
     do {
       sizeBeforeIteration = sizeAfterIteration;
 
-      reductionIteration(syntaxTree, removedNodes, run);
+      reductionIteration(treeJoiner, levels, removedNodes, run);
 
-      sizeAfterIteration = serialize(syntaxTree, removedNodes).length();
+      sizeAfterIteration = treeJoiner.join(removedNodes).length();
     } while (this.fixpoint && sizeAfterIteration < sizeBeforeIteration);
 
-    return serialize(syntaxTree, removedNodes);
+    return treeJoiner.join(removedNodes);
   }
 
-  private final void reductionIteration(final Node<?> syntaxTree, final Set<Node<?>> removedNodes,
-      final ReductionRun run) {
-    List<Node<?>> nodes = getNodes(syntaxTree, 1, removedNodes);
+  private final void reductionIteration(final IncrementalJoiner treeJoiner,
+      final LevelIndex levels, final RemovalSet removedNodes, final ReductionRun run) {
+    final Node<?> syntaxTree = treeJoiner.getSyntaxTree();
+
+    List<Node<?>> nodes = levels.getNodes(syntaxTree, removedNodes);
     while (!nodes.isEmpty()) {
       final List<Node<?>> toReduce;
       {
@@ -134,16 +140,15 @@ public final class HDDReducer extends HDDVariant {
         final boolean keepOnePlusQuantified = COARSE_KEEP_ONE_PLUS_QUANTIFIED && this.coarse;
 
         final List<Node<?>> keptNodesLevel =
-            reduceList(syntaxTree, run, toReduce, removedNodes, keepOnePlusQuantified);
+            reduceList(treeJoiner, run, toReduce, removedNodes, keepOnePlusQuantified);
 
-        removedNodes.addAll(toReduce);
-        removedNodes.removeAll(keptNodesLevel);
+        levels.removeNodes(toReduce, keptNodesLevel, removedNodes);
       }
 
       final List<Node<?>> newNodes = new ArrayList<>();
       {
         for (final Node<?> node : nodes) {
-          newNodes.addAll(getNodes(node, 1, removedNodes));
+          newNodes.addAll(levels.getNodes(node, removedNodes));
         }
       }
 
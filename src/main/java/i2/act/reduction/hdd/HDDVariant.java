@@ -7,15 +7,23 @@ import i2.act.packrat.cst.TerminalNode;
 import i2.act.packrat.cst.visitors.SyntaxTreeVisitor;
 import i2.act.peg.symbols.ParserSymbol;
 import i2.act.peg.symbols.Symbol;
+import i2.act.reduction.ConfigurationCache;
 import i2.act.reduction.Reducer;
 import i2.act.reduction.ReductionRun;
+import i2.act.reduction.RemovalHistory;
 import i2.act.reduction.dd.DDMin;
 import i2.act.reduction.lists.ListReduction;
 import i2.act.reduction.lists.ListReductionCallback;
 import i2.act.reduction.lists.ListReductionFactory;
+import i2.act.reduction.util.IncrementalJoiner;
+import i2.act.reduction.util.RemovalSet;
+import i2.act.reduction.util.SubtreeWeights;
 import i2.act.reduction.util.TokenJoiner;
+import i2.act.reduction.util.TreeIndex;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 public abstract class HDDVariant implements Reducer {
 
@@ -145,6 +153,148 @@ public abstract class HDDVariant implements Reducer {
     return nodes;
   }
 
+  // index of the nodes that 'getNodes(node, 1, removedNodes)' may return for each node of an
+  // indexed syntax tree, and cache for the results of 'isUnremovable'
+  //
+  // as HDD never modifies the syntax tree, the candidates of a node never change (only the removed
+  // ones have to be skipped), and whether a node is unremovable only changes if one of its
+  // descendants is removed (see 'removeNodes')
+  protected final class LevelIndex {
+
+    private final TreeIndex index;
+    private final SubtreeWeights weights;
+
+    // computed on demand
+    private final int[][] nextLevels;
+
+    private final BitSet unremovableChecked;
+    private final BitSet unremovable;
+
+    public LevelIndex(final IncrementalJoiner treeJoiner) {
+      this.index = treeJoiner.getTreeIndex();
+      this.weights = new SubtreeWeights(this.index.getRoot());
+
+      this.nextLevels = new int[this.index.size()][];
+
+      this.unremovableChecked = new BitSet(this.index.size());
+      this.unremovable = new BitSet(this.index.size());
+    }
+
+    // same result as 'getNodes(node, 1, removedNodes)'
+    public final List<Node<?>> getNodes(final Node<?> node, final RemovalSet removedNodes) {
+      if (node instanceof NonTerminalNode && ((NonTerminalNode) node).isQuantifierNode()) {
+        // the children of a quantifier node are on the same level as the node itself, i.e., the
+        // result also depends on which of them have been removed (only happens for the root node)
+        return HDDVariant.this.getNodes(node, 1, removedNodes);
+      }
+
+      final List<Node<?>> nodes = new ArrayList<>();
+
+      final int id = this.index.getId(node);
+      assert (id != TreeIndex.NO_NODE);
+
+      if (node instanceof TerminalNode || removedNodes.contains(id)) {
+        return nodes;
+      }
+
+      for (final int candidate : getNextLevel(id)) {
+        if (removedNodes.contains(candidate)) {
+          continue;
+        }
+
+        if (!HDDVariant.this.hideUnremovable || !isUnremovable(candidate, removedNodes)) {
+          nodes.add(this.index.getNode(candidate));
+        }
+      }
+
+      return nodes;
+    }
+
+    // the non-removed nodes are added to the removed nodes, except for the kept ones
+    public final void removeNodes(final List<Node<?>> nodes, final List<Node<?>> keptNodes,
+        final RemovalSet removedNodes) {
+      removedNodes.addAll(nodes);
+      removedNodes.removeAll(keptNodes);
+
+      for (final Node<?> node : nodes) {
+        final int id = this.index.getId(node);
+
+        if (!removedNodes.contains(id)) {
+          continue;
+        }
+
+        // the serializations of all ancestors have changed
+        for (int ancestor = this.index.getParent(id); ancestor != TreeIndex.NO_NODE;
+            ancestor = this.index.getParent(ancestor)) {
+          this.unremovableChecked.clear(ancestor);
+        }
+      }
+    }
+
+    private final boolean isUnremovable(final int id, final RemovalSet removedNodes) {
+      if (!this.unremovableChecked.get(id)) {
+        final Node<?> node = this.index.getNode(id);
+
+        this.unremovable.set(id, HDDVariant.this.isUnremovable(node, removedNodes));
+        this.unremovableChecked.set(id);
+      }
+
+      return this.unremovable.get(id);
+    }
+
+    // the nodes on the next level below a (non-quantifier) node, in pre-order and without taking
+    // removed nodes into account
+    private final int[] getNextLevel(final int id) {
+      if (this.nextLevels[id] != null) {
+        return this.nextLevels[id];
+      }
+
+      final List<Integer> nextLevel = new ArrayList<>();
+
+      final List<Integer> stack = new ArrayList<>();
+      pushChildren(id, stack);
+
+      while (!stack.isEmpty()) {
+        final int child = stack.remove(stack.size() - 1);
+        final Node<?> childNode = this.index.getNode(child);
+
+        if (childNode instanceof TerminalNode) {
+          if (!HDDVariant.this.skipTerminalNodes) {
+            nextLevel.add(child);
+          }
+        } else if (((NonTerminalNode) childNode).isQuantifierNode()) {
+          // quantifier nodes are skipped, i.e., their children are on the same level
+          pushChildren(child, stack);
+        } else if (!HDDVariant.this.skipTerminalTrees
+            || this.weights.numberOfTerminals(childNode) > 1) {
+          nextLevel.add(child);
+        }
+      }
+
+      final int[] nextLevelIds = new int[nextLevel.size()];
+      for (int index = 0; index < nextLevelIds.length; ++index) {
+        nextLevelIds[index] = nextLevel.get(index);
+      }
+
+      this.nextLevels[id] = nextLevelIds;
+
+      return nextLevelIds;
+    }
+
+    private final void pushChildren(final int id, final List<Integer> stack) {
+      final int numberOfChildren = stack.size();
+
+      for (int child = this.index.getFirstChild(id); child != TreeIndex.NO_NODE;
+          child = this.index.getNextSibling(child)) {
+        stack.add(child);
+      }
+
+      // the children are popped from left to right
+      Collections.reverse(stack.subList(numberOfChildren, stack.size()));
+    }
+
+  }
+
   protected final String serialize(final Node<?> syntaxTree) {
     return serialize(syntaxTree, null);
   }
@@ -153,6 +303,12 @@ public abstract class HDDVariant implements Reducer {
     return this.joiner.join(syntaxTree, removedNodes, this.replacements);
   }
 
+  // as HDD never modifies the syntax tree, all candidates of a reduction can be serialized
+  // incrementally
+  protected final IncrementalJoiner createIncrementalJoiner(final Node<?> syntaxTree) {
+    return new IncrementalJoiner(this.joiner, syntaxTree, this.replacements);
+  }
+
   private final boolean containsEmptiedPlusQuantifiedList(final List<Node<?>> nodes,
       final Set<Node<?>> removedNodes) {
     final Set<NonTerminalNode> checkedParents = new HashSet<>();
@@ -201,30 +357,57 @@ public abstract class HDDVariant implements Reducer {
     return false;
   }
 
-  protected final List<Node<?>> reduceList(final Node<?> syntaxTree, final ReductionRun run,
-      final List<Node<?>> nodes, final Set<Node<?>> removedNodes,
+  protected final List<Node<?>> reduceList(final IncrementalJoiner treeJoiner,
+      final ReductionRun run, final List<Node<?>> nodes, final RemovalSet removedNodes,
       final boolean keepOnePlusQuantified) {
     final boolean TEST_EMPTY_LIST = true;
 
-    final ListReductionCallback<Node<?>> callback = (list) -> {
-      final Set<Node<?>> newRemovedNodes = new HashSet<>(removedNodes);
+    // the syntax tree itself is never modified, i.e., a configuration is determined by the tree and
+    // the set of removed nodes ('nodes' and 'removedNodes' are disjoint)
+    final ToLongFunction<List<Node<?>>> configurations;
+    {
+      final ConfigurationCache configurationCache = run.getConfigurationCache();
+
+      if (configurationCache == null) {
+        configurations = null;
+      } else {
+        final long treeVersion = configurationCache.hash(treeJoiner.getSyntaxTree());
+        final long baseConfiguration = configurationCache.hash(
+            configurationCache.hash(treeVersion, removedNodes), nodes);
+        configurations = (list) -> configurationCache.hash(baseConfiguration, list);
+      }
+    }
+
+    // all nodes of the list are removed, except for the ones in the candidate
+    final RemovalSet allRemovedNodes = removedNodes.copy();
+    allRemovedNodes.addAll(nodes);
 
-      newRemovedNodes.addAll(nodes);
+    final Function<List<Node<?>>, String> serializer = (list) -> {
+      final RemovalSet newRemovedNodes = allRemovedNodes.copy();
       newRemovedNodes.removeAll(list);
 
       // if 'keepOnePlusQuantified' is set, we discard all reduction candidates that contain an
       // empty +-quantified list
       if (keepOnePlusQuantified && containsEmptiedPlusQuantifiedList(nodes, newRemovedNodes)) {
-        return false;
+        return null;
       }
 
-      final String serialized = serialize(syntaxTree, newRemovedNodes);
-
-      final boolean triggersBug = run.test(serialized);
-      return triggersBug;
+      return treeJoiner.join(newRemovedNodes);
     };
 
-    return this.listReduction.reduce(nodes, callback, TEST_EMPTY_LIST);
+    final ListReductionCallback<Node<?>> callback =
+        ListReductionCallback.forRun(run, configurations, serializer);
+
+    final RemovalHistory removalHistory = run.getRemovalHistory();
+
+    if (removalHistory == null) {
+      return this.listReduction.reduce(nodes, callback, TEST_EMPTY_LIST);
+    }
+
+    // the nodes of the level are tried in the order of their removal probabilities (the
+    // configurations and the serialization do not depend on the order of the nodes)
+    return this.listReduction.reduce(removalHistory.sortByRemovalProbability(nodes),
+        removalHistory.recordChecks(nodes, callback), TEST_EMPTY_LIST);
   }
 
 }
@@ -5,6 +5,8 @@ import i2.act.packrat.cst.Node;
 import i2.act.peg.symbols.Symbol;
 import i2.act.reduction.ReductionRun;
 import i2.act.reduction.lists.ListReductionFactory;
+import i2.act.reduction.util.IncrementalJoiner;
+import i2.act.reduction.util.RemovalSet;
 import i2.act.reduction.util.TokenJoiner;
 
 import java.util.*;
@@ -92,7 +94,9 @@ public final class HDDrReducer extends HDDVariant {
 
   @Override
   public final String reduce(final Node<?> syntaxTree, final ReductionRun run) {
-    final Set<Node<?>> removedNodes = new HashSet<>();
+    final IncrementalJoiner treeJoiner = createIncrementalJoiner(syntaxTree);
+    final RemovalSet removedNodes = treeJoiner.createRemovalSet();
+    final LevelIndex levels = new LevelIndex(treeJoiner);
 
     int sizeBeforeIteration;
     int sizeAfterIteration = syntaxTree.print().length();
@@ -100,22 +104,24 @@ public final class HDDrReducer extends HDDVariant {
     do {
       sizeBeforeIteration = sizeAfterIteration;
 
-      reductionIteration(syntaxTree, removedNodes, run);
+      reductionIteration(treeJoiner, levels, removedNodes, run);
 
-      sizeAfterIteration = serialize(syntaxTree, removedNodes).length();
+      sizeAfterIteration = treeJoiner.join(removedNodes).length();
     } while (this.fixpoint && sizeAfterIteration < sizeBeforeIteration);
 
-    return serialize(syntaxTree, removedNodes);
+    return treeJoiner.join(removedNodes);
   }
 
-  private final void reductionIteration(final Node<?> syntaxTree, final Set<Node<?>> removedNodes,
-      final ReductionRun run) {
+  private final void reductionIteration(final IncrementalJoiner treeJoiner,
+      final LevelIndex levels, final RemovalSet removedNodes, final ReductionRun run) {
+    final Node<?> syntaxTree = treeJoiner.getSyntaxTree();
+
     final LinkedList<Node<?>> queue = new LinkedList<>();
     queue.add(syntaxTree);
 
     while (!queue.isEmpty()) {
       final Node<?> currentNode = pop(queue);
-      final List<Node<?>> nodes = getNodes(currentNode, 1, removedNodes);
+      final List<Node<?>> nodes = levels.getNodes(currentNode, removedNodes);
 
       if (nodes.isEmpty()) {
         continue;
@@ -123,10 +129,9 @@ public final class HDDrReducer extends HDDVariant {
 
       final boolean keepOnePlusQuantified = false;
       final List<Node<?>> keptNodesLevel =
-          reduceList(syntaxTree, run, nodes, removedNodes, keepOnePlusQuantified);
+          reduceList(treeJoiner, run, nodes, removedNodes, keepOnePlusQuantified);
 
-      removedNodes.addAll(nodes);
-      removedNodes.removeAll(keptNodesLevel);
+      levels.removeNodes(nodes, keptNodesLevel, removedNodes);
 
       append(queue, keptNodesLevel);
     }
@@ -65,7 +65,7 @@ public class ListReducer<E> implements Reducer {
   public final String reduce(final Node<?> syntaxTree, final ReductionRun run) {
     final List<E> list = this.slicer.slice(syntaxTree);
 
-    final ListReductionCallback<E> callback = (candidate) -> run.test(this.slicer.join(candidate));
+    final ListReductionCallback<E> callback = ListReductionCallback.forRun(run, this.slicer::join);
     final List<E> reduced = this.listReduction.reduce(list, callback);
 
     final String joined = this.slicer.join(reduced);
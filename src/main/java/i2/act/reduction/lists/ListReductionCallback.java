@@ -1,9 +1,108 @@
 package i2.act.reduction.lists;
 
+import i2.act.reduction.ConfigurationCache;
+import i2.act.reduction.ReductionRun;
+
 import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 public interface ListReductionCallback<E> {
 
   public boolean test(final List<E> list);
 
+  // returns the index of the first list that passes the test (or -1 if there is no such list);
+  // implementations may check the lists concurrently, but have to return the same index as the
+  // sequential default implementation
+  default int testFirst(final List<List<E>> lists) {
+    for (int index = 0; index < lists.size(); ++index) {
+      if (test(lists.get(index))) {
+        return index;
+      }
+    }
+
+    return -1;
+  }
+
+  // the serializer may return 'null' for lists that should be rejected without calling the test
+  // function
+  public static <E> ListReductionCallback<E> forRun(final ReductionRun run,
+      final Function<List<E>, String> serializer) {
+    return new ListReductionCallback<E>() {
+
+      @Override
+      public final boolean test(final List<E> list) {
+        final String serialized = serializer.apply(list);
+        return serialized != null && run.test(serialized);
+      }
+
+      @Override
+      public final int testFirst(final List<List<E>> lists) {
+        return run.testFirst(lists.size(), (index) -> serializer.apply(lists.get(index)));
+      }
+
+    };
+  }
+
+  // like above, but failing lists are additionally cached by the hashes of their configurations
+  // (see 'ConfigurationCache'), so that repeated configurations are rejected without serializing
+  // them; the hashes have to identify the resulting programs ('configurations' may be 'null' if
+  // the configuration cache is disabled)
+  public static <E> ListReductionCallback<E> forRun(final ReductionRun run,
+      final ToLongFunction<List<E>> configurations, final Function<List<E>, String> serializer) {
+    final ConfigurationCache configurationCache = run.getConfigurationCache();
+
+    if (configurationCache == null || configurations == null) {
+      return forRun(run, serializer);
+    }
+
+    return new ListReductionCallback<E>() {
+
+      @Override
+      public final boolean test(final List<E> list) {
+        final long configuration = configurations.applyAsLong(list);
+
+        if (configurationCache.isFailing(configuration)) {
+          return false;
+        }
+
+        final String serialized = serializer.apply(list);
+        final boolean triggersBug = serialized != null && run.test(serialized);
+
+        if (!triggersBug) {
+          configurationCache.addFailing(configuration);
+        }
+
+        return triggersBug;
+      }
+
+      @Override
+      public final int testFirst(final List<List<E>> lists) {
+        final long[] listConfigurations = new long[lists.size()];
+
+        final int firstIndex = run.testFirst(lists.size(), (index) -> {
+          final List<E> list = lists.get(index);
+          final long configuration = configurations.applyAsLong(list);
+
+          listConfigurations[index] = configuration;
+
+          if (configurationCache.isFailing(configuration)) {
+            return null;
+          }
+
+          return serializer.apply(list);
+        });
+
+        // all lists before the first successful one have failed
+        final int numberOfFailingLists = (firstIndex == -1) ? lists.size() : firstIndex;
+        for (int index = 0; index < numberOfFailingLists; ++index) {
+          configurationCache.addFailing(listConfigurations[index]);
+        }
+
+        return firstIndex;
+      }
+
+    };
+  }
+
 }
@@ -2,6 +2,7 @@ package i2.act.reduction.lists;
 
 import i2.act.reduction.dd.DDMin;
 import i2.act.reduction.dd.OPDD;
+import i2.act.reduction.dd.ProbDD;
 
 public enum ListReductionFactory {
 
@@ -62,6 +63,17 @@ public enum ListReductionFactory {
 
   },
 
+  SPECULATIVE_DDMIN("SpeculativeDDMin") {
+
+    @Override
+    public final <E> ListReduction<E> createListReduction() {
+      return new DDMin<E>(
+          DDMin.DEFAULT_REDUCE_TO_SUBSET, DDMin.DEFAULT_REDUCE_TO_COMPLEMENT,
+          DDMin.DEFAULT_REVERSE_SUBSETS, DDMin.DEFAULT_REVERSE_COMPLEMENTS, true);
+    }
+
+  },
+
   OPDD("OPDD") {
 
     @Override
@@ -78,6 +90,24 @@ public enum ListReductionFactory {
       return new OPDD<E>(true, true);
     }
 
+  },
+
+  SPECULATIVE_OPDD("SpeculativeOPDD") {
+
+    @Override
+    public final <E> ListReduction<E> createListReduction() {
+      return new OPDD<E>(false, false, true);
+    }
+
+  },
+
+  PROBDD("ProbDD") {
+
+    @Override
+    public final <E> ListReduction<E> createListReduction() {
+      return new ProbDD<E>();
+    }
+
   };
 
   // ===============================================================================================
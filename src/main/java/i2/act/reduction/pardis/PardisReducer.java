@@ -5,23 +5,28 @@ import i2.act.packrat.cst.NonTerminalNode;
 import i2.act.peg.ast.Grammar;
 import i2.act.peg.symbols.ParserSymbol;
 import i2.act.peg.symbols.Symbol;
+import i2.act.reduction.ConfigurationCache;
 import i2.act.reduction.Reducer;
 import i2.act.reduction.ReductionRun;
+import i2.act.reduction.RemovalHistory;
 import i2.act.reduction.dd.OPDD;
 import i2.act.reduction.lists.ListReduction;
 import i2.act.reduction.lists.ListReductionCallback;
 import i2.act.reduction.lists.ListReductionFactory;
+import i2.act.reduction.util.IncrementalJoiner;
+import i2.act.reduction.util.IndexedPriorityQueue;
+import i2.act.reduction.util.RemovalSet;
+import i2.act.reduction.util.SubtreeWeights;
 import i2.act.reduction.util.TokenJoiner;
+import i2.act.reduction.util.TreeIndex;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 public final class PardisReducer implements Reducer {
 
@@ -124,30 +129,34 @@ public final class PardisReducer implements Reducer {
   public static interface Priority {
 
     public abstract int[] getPriorityVector(final Node<?> node,
-        final Map<Node<?>, Integer> bfsOrder);
+        final ToIntFunction<Node<?>> bfsOrder, final SubtreeWeights weights);
 
   }
 
   public static final Priority PardisPriority =
-      (node, bfsOrder) -> new int[] {node.numberOfTerminals(), bfsOrder.get(node)};
+      (node, bfsOrder, weights) ->
+          new int[] {weights.numberOfTerminals(node), bfsOrder.applyAsInt(node)};
 
   public static final Priority PardisHybridPriority =
-      (node, bfsOrder) -> {
-        final int parentOrder =
-            (node.getParent() == null) ? Integer.MAX_VALUE : bfsOrder.get(node.getParent());
-        return new int[] {node.numberOfTerminals(), parentOrder, bfsOrder.get(node)};
+      (node, bfsOrder, weights) -> {
+        final int parentOrder = (node.getParent() == null)
+            ? Integer.MAX_VALUE
+            : bfsOrder.applyAsInt(node.getParent());
+        return new int[] {weights.numberOfTerminals(node), parentOrder, bfsOrder.applyAsInt(node)};
       };
 
   public static final Priority PersesPriority =
-      (node, bfsOrder) -> {
-        final int parentWeight =
-            (node.getParent() == null) ? Integer.MAX_VALUE : node.getParent().numberOfTerminals();
-        final int parentOrder =
-            (node.getParent() == null) ? Integer.MAX_VALUE : bfsOrder.get(node.getParent());
+      (node, bfsOrder, weights) -> {
+        final int parentWeight = (node.getParent() == null)
+            ? Integer.MAX_VALUE
+            : weights.numberOfTerminals(node.getParent());
+        final int parentOrder = (node.getParent() == null)
+            ? Integer.MAX_VALUE
+            : bfsOrder.applyAsInt(node.getParent());
         // NOTE: In the original definition, the priority vector only consists of the first two
         // elements. However, to faithfully imitate Perses w/o replacements, we have to make sure
         // that we remove the nodes in the correct order.
-        return new int[] {parentWeight, parentOrder, -bfsOrder.get(node)};
+        return new int[] {parentWeight, parentOrder, -bfsOrder.applyAsInt(node)};
       };
 
   // ===============================================================================================
@@ -189,13 +198,20 @@ public final class PardisReducer implements Reducer {
   public final String reduce(final Node<?> syntaxTree, final ReductionRun run) {
     final Node<?> reduced = syntaxTree.cloneTree();
 
+    // the weights are patched when the tree is pruned after each iteration
+    final SubtreeWeights weights = new SubtreeWeights(reduced);
+
+    // the version of the tree is derived from the previous one when the tree is pruned, so that
+    // failing configurations remain cached across iterations
+    long treeVersion = newTreeVersion(run);
+
     int sizeBeforeIteration;
     int sizeAfterIteration = serialize(reduced).length();
 
     do {
       sizeBeforeIteration = sizeAfterIteration;
 
-      reductionIteration(reduced, run);
+      treeVersion = reductionIteration(reduced, weights, treeVersion, run);
 
       sizeAfterIteration = serialize(reduced).length();
     } while (this.fixpoint && sizeAfterIteration < sizeBeforeIteration);
@@ -203,38 +219,23 @@ public final class PardisReducer implements Reducer {
     return serialize(reduced);
   }
 
-  private final void reductionIteration(final Node<?> syntaxTree, final ReductionRun run) {
-    final Set<Node<?>> removedNodes = new HashSet<>();
-
-    final Map<Node<?>, Integer> bfsOrder = computeBFSOrder(syntaxTree);
-    final Map<Node<?>, int[]> priorities = new HashMap<>();
-
-    final Queue<Node<?>> worklist = new PriorityQueue<>(
-        (t1, t2) -> {
-          assert (t1 != t2);
-
-          final int[] priorityVector1 = getPriorityVector(t1, priorities, bfsOrder);
-          final int[] priorityVector2 = getPriorityVector(t2, priorities, bfsOrder);
+  // returns the version of the pruned tree
+  private final long reductionIteration(final Node<?> syntaxTree, final SubtreeWeights weights,
+      final long treeVersion, final ReductionRun run) {
+    // the tree is only modified at the end of the iteration
+    final IncrementalJoiner treeJoiner = new IncrementalJoiner(this.joiner, syntaxTree, null);
 
-          assert (priorityVector1 != null);
-          assert (priorityVector2 != null);
-          assert (priorityVector1.length == priorityVector2.length);
-
-          for (int index = 0; index < priorityVector1.length; ++index) {
-            if (priorityVector1[index] != priorityVector2[index]) {
-              return -Integer.compare(priorityVector1[index], priorityVector2[index]);
-            }
-          }
-
-          // for all priority variants, the ordering should be unique
-          assert (false);
-          return 0;
-        });
+    final RemovalSet removedNodes = treeJoiner.createRemovalSet();
 
+    final Worklist worklist =
+        new Worklist(treeJoiner.getTreeIndex(), weights, run.getRemovalHistory());
     worklist.add(syntaxTree);
 
+    // reused for all batches of nodes (the partition does not keep a reference to it)
+    final List<Node<?>> nextNodes = new ArrayList<>();
+
     while (!worklist.isEmpty()) {
-      final List<Node<?>> nextNodes = getNextNodes(worklist, priorities, bfsOrder);
+      worklist.removeNextNodes(nextNodes);
 
       final List<Node<?>> nullable;
       final List<Node<?>> nonNullable;
@@ -245,108 +246,214 @@ public final class PardisReducer implements Reducer {
       }
 
       if (!nullable.isEmpty()) {
-        final List<Node<?>> retained = reduceList(syntaxTree, run, nullable, removedNodes);
+        final List<Node<?>> retained =
+            reduceList(treeJoiner, treeVersion, run, nullable, removedNodes);
 
         removedNodes.addAll(nullable);
         removedNodes.removeAll(retained);
 
-        addChildrenToWorklist(retained, worklist, removedNodes);
+        worklist.addChildren(retained, removedNodes);
       }
 
-      addChildrenToWorklist(nonNullable, worklist, removedNodes);
+      worklist.addChildren(nonNullable, removedNodes);
     }
 
+    for (final Node<?> removedNode : removedNodes) {
+      weights.prune(removedNode);
+    }
+
+    final long prunedTreeVersion = pruneTreeVersion(run, treeVersion, removedNodes);
+
     syntaxTree.prune(removedNodes);
 
     run.finishIteration();
+
+    return prunedTreeVersion;
   }
 
-  private static final void addChildrenToWorklist(final List<Node<?>> nodes,
-      final Queue<Node<?>> worklist, final Set<Node<?>> removedNodes) {
-    for (final Node<?> node : nodes) {
-      for (final Node<?> child : node.getChildren()) {
-        if ((child instanceof NonTerminalNode) && !removedNodes.contains(child)) {
-          worklist.add(child);
-        }
-      }
-    }
+  private static final long newTreeVersion(final ReductionRun run) {
+    final ConfigurationCache configurationCache = run.getConfigurationCache();
+    return (configurationCache == null) ? 0 : configurationCache.newVersion();
   }
 
-  private final Map<Node<?>, Integer> computeBFSOrder(final Node<?> syntaxTree) {
-    final Map<Node<?>, Integer> bfsOrder = new HashMap<>();
+  // a configuration of the pruned tree results in the same program as the configuration of the
+  // unpruned tree that additionally removes the pruned nodes, i.e., their hashes have to match
+  private static final long pruneTreeVersion(final ReductionRun run, final long treeVersion,
+      final Collection<Node<?>> prunedNodes) {
+    final ConfigurationCache configurationCache = run.getConfigurationCache();
+    return (configurationCache == null)
+        ? treeVersion
+        : configurationCache.hash(treeVersion, prunedNodes);
+  }
 
-    int bfsNumber = syntaxTree.size();
+  // worklist of the nodes of an (unmodified) syntax tree, ordered by their priority vectors; the
+  // vectors are computed once when a node is added, and the queue itself works on the node ids
+  //
+  // with a removal history, the expected gain of a node (i.e., its weight times the probability
+  // that it can be removed) is prepended to its priority vector, so that the most promising nodes
+  // are tried first; in 'hybrid' mode, this would separate siblings of the same weight (but with
+  // different symbols) in the queue, i.e., they could no longer be removed together, so the gain
+  // only orders the nodes within each batch instead
+  private final class Worklist {
 
-    final Queue<Node<?>> queue = new LinkedList<>();
-    queue.add(syntaxTree);
+    // the expected gains are given in 1/1024 terminals
+    private static final int GAIN_SCALE = 1024;
 
-    while (!queue.isEmpty()) {
-      final Node<?> node = queue.remove();
-      bfsOrder.put(node, bfsNumber--);
+    private final TreeIndex index;
+    private final SubtreeWeights weights;
+    private final RemovalHistory removalHistory;
 
-      final List<Node<?>> children = node.getChildren();
-      for (int index = children.size() - 1; index >= 0; --index) {
-        final Node<?> child = children.get(index);
-        queue.add(child);
-      }
+    private final boolean prependGain;
+
+    // index of the weight in the priority vectors
+    private final int weightIndex;
+
+    private final int[] bfsOrder;
+    private final ToIntFunction<Node<?>> bfsNumbers;
+
+    // created with the first node, since the length of the priority vectors is not known before
+    private IndexedPriorityQueue queue;
+
+    public Worklist(final TreeIndex index, final SubtreeWeights weights,
+        final RemovalHistory removalHistory) {
+      this.index = index;
+      this.weights = weights;
+      this.removalHistory = removalHistory;
+      this.prependGain = removalHistory != null && !PardisReducer.this.hybrid;
+      this.weightIndex = this.prependGain ? 1 : 0;
+
+      this.bfsOrder = computeBFSOrder(index);
+      this.bfsNumbers = (node) -> this.bfsOrder[index.getId(node)];
     }
 
-    return bfsOrder;
-  }
+    public final boolean isEmpty() {
+      return this.queue == null || this.queue.isEmpty();
+    }
 
-  private final int[] getPriorityVector(final Node<?> node, final Map<Node<?>, int[]> priorities,
-      final Map<Node<?>, Integer> bfsOrder) {
-    if (priorities.containsKey(node)) {
-      return priorities.get(node);
+    public final void add(final Node<?> node) {
+      add(this.index.getId(node), node);
     }
 
-    final int[] priorityVector = this.priority.getPriorityVector(node, bfsOrder);
-    priorities.put(node, priorityVector);
+    private final void add(final int id, final Node<?> node) {
+      final int[] priorityVector = getPriorityVector(node);
 
-    return priorityVector;
-  }
+      if (this.queue == null) {
+        this.queue = new IndexedPriorityQueue(this.index.size(), priorityVector.length);
+      }
 
-  private final List<Node<?>> getNextNodes(final Queue<Node<?>> worklist,
-      final Map<Node<?>, int[]> priorities, final Map<Node<?>, Integer> bfsOrder) {
-    final List<Node<?>> nextNodes = new ArrayList<>();
+      // for all priority variants, the ordering should be unique
+      this.queue.add(id, priorityVector);
+    }
 
-    final Node<?> head = worklist.remove();
-    nextNodes.add(head);
+    private final int[] getPriorityVector(final Node<?> node) {
+      final int[] priorityVector =
+          PardisReducer.this.priority.getPriorityVector(node, this.bfsNumbers, this.weights);
 
-    if (this.hybrid) {
-      // in 'hybrid' mode, we not only remove the first element of the worklist but all first
-      // elements with the same weight and parent
+      if (!this.prependGain) {
+        return priorityVector;
+      }
 
-      final int headWeight;
-      {
-        final int[] headPriority = getPriorityVector(head, priorities, bfsOrder);
-        assert (headPriority != null);
+      final double expectedGain = this.weights.numberOfTerminals(node)
+          * this.removalHistory.getRemovalProbability(node) * GAIN_SCALE;
 
-        // the first element of the priority vector corresponds to the node's weight
-        // (this is also true for the Perses priority)
-        headWeight = headPriority[0];
+      final int[] historyPriorityVector = new int[priorityVector.length + 1];
+      historyPriorityVector[0] = (int) Math.min(Math.round(expectedGain), Integer.MAX_VALUE);
+      System.arraycopy(priorityVector, 0, historyPriorityVector, 1, priorityVector.length);
+
+      return historyPriorityVector;
+    }
+
+    public final void addChildren(final List<Node<?>> nodes, final RemovalSet removedNodes) {
+      for (final Node<?> node : nodes) {
+        final int id = this.index.getId(node);
+
+        for (int child = this.index.getFirstChild(id); child != TreeIndex.NO_NODE;
+            child = this.index.getNextSibling(child)) {
+          final Node<?> childNode = this.index.getNode(child);
+
+          if ((childNode instanceof NonTerminalNode) && !removedNodes.contains(child)) {
+            add(child, childNode);
+          }
+        }
       }
+    }
+
+    public final void removeNextNodes(final List<Node<?>> nextNodes) {
+      nextNodes.clear();
 
-      while (!worklist.isEmpty()) {
-        final Node<?> next = worklist.peek();
-        final int nextWeight;
-        {
-          final int[] nextPriority = priorities.get(next);
-          assert (nextPriority != null);
+      final int head = this.queue.remove();
+      nextNodes.add(this.index.getNode(head));
 
-          nextWeight = nextPriority[0]; // see above
+      if (PardisReducer.this.hybrid) {
+        // in 'hybrid' mode, we not only remove the first element of the worklist but all first
+        // elements with the same weight and parent
+
+        // the first element of the priority vector corresponds to the node's weight
+        // (this is also true for the Perses priority); the expected gain is never prepended in
+        // 'hybrid' mode
+        final int headWeight = this.queue.getPriority(head, this.weightIndex);
+        final int headParent = this.index.getParent(head);
+
+        while (!this.queue.isEmpty()) {
+          final int next = this.queue.peek();
+
+          if (headWeight == this.queue.getPriority(next, this.weightIndex)
+              && headParent == this.index.getParent(next)) {
+            this.queue.remove();
+            nextNodes.add(this.index.getNode(next));
+          } else {
+            break;
+          }
         }
 
-        if (headWeight == nextWeight && head.getParent() == next.getParent()) {
-          worklist.remove();
-          nextNodes.add(next);
-        } else {
-          break;
+        // all nodes of the batch have the same weight, i.e., ordering them by their removal
+        // probabilities orders them by their expected gains
+        if (this.removalHistory != null && nextNodes.size() > 1) {
+          final List<Node<?>> sortedNodes = this.removalHistory.sortByRemovalProbability(nextNodes);
+
+          nextNodes.clear();
+          nextNodes.addAll(sortedNodes);
         }
       }
     }
 
-    return nextNodes;
+  }
+
+  private static final int[] computeBFSOrder(final TreeIndex index) {
+    final int size = index.size();
+
+    final int[] bfsOrder = new int[size];
+
+    // each node is added to the queue exactly once, i.e., the queue can be a plain array
+    final int[] queue = new int[size];
+    int queueBegin = 0;
+    int queueEnd = 0;
+
+    queue[queueEnd++] = 0; // root node
+
+    int bfsNumber = size;
+
+    while (queueBegin < queueEnd) {
+      final int id = queue[queueBegin++];
+      bfsOrder[id] = bfsNumber--;
+
+      // the children are added from right to left
+      int numberOfChildren = 0;
+      for (int child = index.getFirstChild(id); child != TreeIndex.NO_NODE;
+          child = index.getNextSibling(child)) {
+        ++numberOfChildren;
+      }
+
+      int position = queueEnd + numberOfChildren - 1;
+      for (int child = index.getFirstChild(id); child != TreeIndex.NO_NODE;
+          child = index.getNextSibling(child)) {
+        queue[position--] = child;
+      }
+
+      queueEnd += numberOfChildren;
+    }
+
+    return bfsOrder;
   }
 
   @SuppressWarnings("unchecked")
@@ -455,8 +562,9 @@ public final class PardisReducer implements Reducer {
     return this.joiner.join(syntaxTree, removedNodes);
   }
 
-  protected final List<Node<?>> reduceList(final Node<?> syntaxTree, final ReductionRun run,
-      final List<Node<?>> nodes, final Set<Node<?>> removedNodes) {
+  protected final List<Node<?>> reduceList(final IncrementalJoiner treeJoiner,
+      final long treeVersion, final ReductionRun run, final List<Node<?>> nodes,
+      final RemovalSet removedNodes) {
     final boolean keepOne;
     {
       assert (!nodes.isEmpty());
@@ -485,22 +593,46 @@ public final class PardisReducer implements Reducer {
 
     final boolean TEST_EMPTY_LIST = !keepOne;
 
-    final ListReductionCallback<Node<?>> callback = (list) -> {
-      if (keepOne && list.isEmpty()) {
-        return false;
+    // 'nodes' and 'removedNodes' are disjoint
+    final ToLongFunction<List<Node<?>>> configurations;
+    {
+      final ConfigurationCache configurationCache = run.getConfigurationCache();
+
+      if (configurationCache == null) {
+        configurations = null;
+      } else {
+        final long baseConfiguration = configurationCache.hash(
+            configurationCache.hash(treeVersion, removedNodes), nodes);
+        configurations = (list) -> configurationCache.hash(baseConfiguration, list);
       }
+    }
 
-      final Set<Node<?>> newRemovedNodes = new HashSet<>(removedNodes);
+    // all nodes of the list are removed, except for the ones in the candidate
+    final RemovalSet allRemovedNodes = removedNodes.copy();
+    allRemovedNodes.addAll(nodes);
 
-      newRemovedNodes.addAll(nodes);
-      newRemovedNodes.removeAll(list);
+    final Function<List<Node<?>>, String> serializer = (list) -> {
+      if (keepOne && list.isEmpty()) {
+        return null;
+      }
 
-      final String serialized = serialize(syntaxTree, newRemovedNodes);
+      final RemovalSet newRemovedNodes = allRemovedNodes.copy();
+      newRemovedNodes.removeAll(list);
 
-      final boolean triggersBug = run.test(serialized);
-      return triggersBug;
+      return treeJoiner.join(newRemovedNodes);
     };
 
+    final ListReductionCallback<Node<?>> callback;
+    {
+      final ListReductionCallback<Node<?>> runCallback =
+          ListReductionCallback.forRun(run, configurations, serializer);
+
+      final RemovalHistory removalHistory = run.getRemovalHistory();
+      callback = (removalHistory == null)
+          ? runCallback
+          : removalHistory.recordChecks(nodes, runCallback);
+    }
+
     // NOTE: for lists with one element, the list reduction should perform exactly one check (it
     // should only check the empty list)
     return this.listReduction.reduce(nodes, callback, TEST_EMPTY_LIST);
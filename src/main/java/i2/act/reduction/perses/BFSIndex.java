@@ -0,0 +1,122 @@
+package i2.act.reduction.perses;
+
+import i2.act.packrat.cst.Node;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// breadth-first order of the nodes of a syntax tree whose children are visited from right to left
+// (i.e., the order in which Perses processes nodes of equal size)
+//
+// instead of the positions in this order, the index stores the depth and the pre-order number of
+// each node: a node comes first if it is less deep, or if it is at the same depth and has a larger
+// pre-order number; thus, two nodes can be compared in constant time, and the index only has to be
+// patched when a sub-tree is replaced
+public final class BFSIndex {
+
+  private final Map<Node<?>, Long> keys;
+
+  public BFSIndex(final Node<?> syntaxTree) {
+    this.keys = new IdentityHashMap<>();
+    number(syntaxTree, 0, 0);
+  }
+
+  // has to be called _after_ 'oldNode' has been replaced with 'newNode' in the (resulting) tree
+  public final void replace(final Node<?> oldNode, final Node<?> newNode,
+      final Node<?> syntaxTree) {
+    if (oldNode == newNode) {
+      return;
+    }
+
+    final long oldKey = getKey(oldNode);
+    final int oldSize = removeKeys(oldNode);
+
+    if (newNode.size() <= oldSize) {
+      // the new sub-tree fits into the pre-order numbers of the old one, i.e., all other nodes keep
+      // their numbers (the reductions of Perses never make a sub-tree larger)
+      number(newNode, getDepth(oldKey), getPreOrderNumber(oldKey));
+    } else {
+      this.keys.clear();
+      number(syntaxTree, 0, 0);
+    }
+  }
+
+  // returns a negative value if 'node1' comes first in the breadth-first order
+  public final int compare(final Node<?> node1, final Node<?> node2) {
+    final long key1 = getKey(node1);
+    final long key2 = getKey(node2);
+
+    final int depth1 = getDepth(key1);
+    final int depth2 = getDepth(key2);
+
+    if (depth1 == depth2) {
+      final int preOrderNumber1 = getPreOrderNumber(key1);
+      final int preOrderNumber2 = getPreOrderNumber(key2);
+
+      assert (node1 == node2 || preOrderNumber1 != preOrderNumber2);
+      return -Integer.compare(preOrderNumber1, preOrderNumber2);
+    }
+
+    return Integer.compare(depth1, depth2);
+  }
+
+  private final long getKey(final Node<?> node) {
+    final Long key = this.keys.get(node);
+    assert (key != null) : "node is not part of the indexed tree";
+
+    return key;
+  }
+
+  private static final int getDepth(final long key) {
+    return (int) (key >>> 32);
+  }
+
+  private static final int getPreOrderNumber(final long key) {
+    return (int) key;
+  }
+
+  private final void number(final Node<?> subtree, final int depth, final int firstNumber) {
+    final List<Node<?>> stack = new ArrayList<>();
+    final List<Integer> depths = new ArrayList<>();
+
+    stack.add(subtree);
+    depths.add(depth);
+
+    int preOrderNumber = firstNumber;
+
+    while (!stack.isEmpty()) {
+      final Node<?> node = stack.remove(stack.size() - 1);
+      final int nodeDepth = depths.remove(depths.size() - 1);
+
+      this.keys.put(node, ((long) nodeDepth << 32) | (preOrderNumber & 0xFFFFFFFFL));
+      ++preOrderNumber;
+
+      final List<? extends Node<?>> children = node.getChildren();
+      for (int index = children.size() - 1; index >= 0; --index) {
+        stack.add(children.get(index));
+        depths.add(nodeDepth + 1);
+      }
+    }
+  }
+
+  private final int removeKeys(final Node<?> subtree) {
+    final List<Node<?>> stack = new ArrayList<>();
+    stack.add(subtree);
+
+    int size = 0;
+
+    while (!stack.isEmpty()) {
+      final Node<?> node = stack.remove(stack.size() - 1);
+
+      this.keys.remove(node);
+      ++size;
+
+      stack.addAll(node.getChildren());
+    }
+
+    return size;
+  }
+
+}
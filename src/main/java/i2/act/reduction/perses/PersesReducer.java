@@ -7,12 +7,15 @@ import i2.act.packrat.cst.TerminalNode;
 import i2.act.peg.ast.Grammar;
 import i2.act.peg.symbols.ParserSymbol;
 import i2.act.peg.symbols.Symbol;
+import i2.act.reduction.ConfigurationCache;
 import i2.act.reduction.Reducer;
 import i2.act.reduction.ReductionRun;
+import i2.act.reduction.RemovalHistory;
 import i2.act.reduction.dd.DDMin;
 import i2.act.reduction.lists.ListReduction;
 import i2.act.reduction.lists.ListReductionCallback;
 import i2.act.reduction.lists.ListReductionFactory;
+import i2.act.reduction.util.SubtreeWeights;
 import i2.act.reduction.util.TokenJoiner;
 import i2.act.util.Pair;
 
@@ -27,6 +30,7 @@ import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 public final class PersesReducer implements Reducer {
 
@@ -132,7 +136,12 @@ public final class PersesReducer implements Reducer {
 
   @Override
   public final String reduce(final Node<?> syntaxTree, final ReductionRun run) {
-    Node<?> best = syntaxTree;
+    // the tree is only copied once, so that the list items keep their identities (and thus their
+    // hashes in the configuration cache) across iterations
+    Node<?> best = syntaxTree.cloneTree();
+
+    // only changes when a reduction modifies the tree
+    final long[] treeVersion = { newTreeVersion(run) };
 
     int sizeBeforeIteration;
     int sizeAfterIteration = syntaxTree.print().length();
@@ -140,7 +149,7 @@ public final class PersesReducer implements Reducer {
     do {
       sizeBeforeIteration = sizeAfterIteration;
 
-      best = reductionIteration(best, run);
+      best = reductionIteration(best, treeVersion, run);
 
       sizeAfterIteration = best.print().length();
     } while (this.fixpoint && sizeAfterIteration < sizeBeforeIteration);
@@ -148,20 +157,22 @@ public final class PersesReducer implements Reducer {
     return best.print();
   }
 
-  private final Node<?> reductionIteration(final Node<?> syntaxTree, final ReductionRun run) {
-    final Node<?>[] best = { syntaxTree.cloneTree() };
+  private final Node<?> reductionIteration(final Node<?> syntaxTree, final long[] treeVersion,
+      final ReductionRun run) {
+    final Node<?>[] best = { syntaxTree };
+
+    // nodes are processed by decreasing weight and, for equal weights, in breadth-first order; both
+    // are patched whenever the tree is modified, so that comparisons do not have to traverse it
+    final BFSIndex bfsIndex = new BFSIndex(best[0]);
+    final SubtreeWeights weights = new SubtreeWeights(best[0]);
 
     final Queue<Node<?>> worklist = new PriorityQueue<>(
         (node1, node2) -> {
-          final int size1 = node1.numberOfTerminals();
-          final int size2 = node2.numberOfTerminals();
+          final int size1 = weights.numberOfTerminals(node1);
+          final int size2 = weights.numberOfTerminals(node2);
 
           if (size1 == size2) {
-            final int bfsOrder1 = bfsOrder(node1, best[0]);
-            final int bfsOrder2 = bfsOrder(node2, best[0]);
-
-            assert (bfsOrder1 != bfsOrder2);
-            return -Integer.compare(bfsOrder1, bfsOrder2);
+            return bfsIndex.compare(node1, node2);
           }
           return -Integer.compare(size1, size2);
         });
@@ -174,10 +185,10 @@ public final class PersesReducer implements Reducer {
 
       final Pair<Node<?>, List<Node<?>>> reductionResult;
 
-      if (this.minNodeLimit > 0 && current.size() < this.minNodeLimit) {
+      if (this.minNodeLimit > 0 && weights.size(current) < this.minNodeLimit) {
         // sub-tree is too small to be considered
         continue;
-      } else if (this.maxNodeLimit > 0 && current.size() > this.maxNodeLimit) {
+      } else if (this.maxNodeLimit > 0 && weights.size(current) > this.maxNodeLimit) {
         // sub-tree is too big to be considered
         reductionResult = new Pair<>(current, current.getChildren());
       } else if (isRegularNode(current)) {
@@ -187,9 +198,9 @@ public final class PersesReducer implements Reducer {
           reductionResult = reduceRegular((NonTerminalNode) current, best[0], run);
         }
       } else if (isOptionalNode(current) || isStarNode(current)) {
-        reductionResult = reduceStar((NonTerminalNode) current, best[0], run);
+        reductionResult = reduceStar((NonTerminalNode) current, best[0], treeVersion[0], run);
       } else if (isPlusNode(current)) {
-        reductionResult = reducePlus((NonTerminalNode) current, best[0], run);
+        reductionResult = reducePlus((NonTerminalNode) current, best[0], treeVersion[0], run);
       } else {
         assert (current instanceof TerminalNode);
         continue;
@@ -198,6 +209,14 @@ public final class PersesReducer implements Reducer {
       final Node<?> newCurrent = reductionResult.getFirst();
       final List<Node<?>> newCandidates = reductionResult.getSecond();
 
+      // the reductions never make a sub-tree larger; a new list with the same items (i.e., with the
+      // same size) does not change the program
+      if (weights.size(newCurrent) != weights.size(current)) {
+        treeVersion[0] = newTreeVersion(run);
+      }
+
+      weights.replace(current, newCurrent);
+
       if (current == best[0]) {
         assert (worklist.isEmpty());
         best[0] = newCurrent;
@@ -205,6 +224,8 @@ public final class PersesReducer implements Reducer {
         current.replaceWith(newCurrent);
       }
 
+      bfsIndex.replace(current, newCurrent, best[0]);
+
       for (final Node<?> newCandidate : newCandidates) {
         if (newCandidate instanceof NonTerminalNode) {
           worklist.add(newCandidate);
@@ -217,32 +238,6 @@ public final class PersesReducer implements Reducer {
     return best[0];
   }
 
-  private final int bfsOrder(final Node<?> node, final Node<?> syntaxTree) {
-    int bfsNumber = syntaxTree.size();
-
-    final Queue<Node<?>> queue = new LinkedList<>();
-    queue.add(syntaxTree);
-
-    while (!queue.isEmpty()) {
-      final Node<?> nextNode = queue.remove();
-
-      if (nextNode == node) {
-        return bfsNumber;
-      }
-
-      final List<Node<?>> children = nextNode.getChildren();
-      for (int index = children.size() - 1; index >= 0; --index) {
-        final Node<?> child = children.get(index);
-        queue.add(child);
-      }
-
-      --bfsNumber;
-    }
-
-    assert (false);
-    return -1;
-  }
-
   private final boolean isRegularNode(final Node<?> node) {
     if (!(node instanceof NonTerminalNode)) {
       return false;
@@ -275,11 +270,7 @@ public final class PersesReducer implements Reducer {
 
   private final Pair<Node<?>, List<Node<?>>> reduceRegular(final NonTerminalNode node,
       final Node<?> tree, final ReductionRun run) {
-    final Pair<Node<?>, Node<?>> cloneResult = tree.cloneTree(node);
-    final Node<?> clonedTree = cloneResult.getFirst();
-    final Node<?> clonedNode = cloneResult.getSecond();
-
-    final Symbol<?> expectedSymbol = clonedNode.getExpectedSymbol();
+    final Symbol<?> expectedSymbol = node.getExpectedSymbol();
     assert (expectedSymbol != null);
 
     final Set<Symbol<?>> subsumed = this.subsumption.get(expectedSymbol);
@@ -287,10 +278,10 @@ public final class PersesReducer implements Reducer {
 
     final Node<?> bfsStartNode;
     {
-      if (isListItemNode(clonedNode) && clonedNode.numberOfChildren() == 1) {
-        bfsStartNode = clonedNode.getChild(0);
+      if (isListItemNode(node) && node.numberOfChildren() == 1) {
+        bfsStartNode = node.getChild(0);
       } else {
-        bfsStartNode = clonedNode;
+        bfsStartNode = node;
       }
     }
 
@@ -309,9 +300,9 @@ public final class PersesReducer implements Reducer {
 
     // quantified nodes
     {
-      if (isStarNode(clonedNode.getParent()) || isPlusNode(clonedNode.getParent())) {
-        assert (clonedNode.getParent() instanceof NonTerminalNode);
-        final NonTerminalNode quantifierParent = (NonTerminalNode) clonedNode.getParent();
+      if (isStarNode(node.getParent()) || isPlusNode(node.getParent())) {
+        assert (node.getParent() instanceof NonTerminalNode);
+        final NonTerminalNode quantifierParent = (NonTerminalNode) node.getParent();
 
         final List<Node<?>> quantifiedCandidates = boundedBFS(bfsStartNode,
             (candidate) -> {
@@ -340,62 +331,62 @@ public final class PersesReducer implements Reducer {
       }
     }
 
-    Node<?> best = clonedNode;
-
     // sorting by size allows us to end the search for candidates as soon as we have found one
     Collections.sort(candidates,
         (c1, c2) -> Integer.compare(c1.print().length(), c2.print().length()));
 
-    candidates: for (final Node<?> candidate : candidates) {
-      assert (clonedNode != candidate);
+    // the candidates are only serialized on demand, as if they replaced the node (the tree itself
+    // is neither modified nor copied); in parallel mode, they may be checked concurrently, but the
+    // first successful one (in the sorted order) is always chosen
+    //
+    // NOTE: the list item that wraps a candidate for a list item node has no tokens of its own,
+    // i.e., it is only constructed for the chosen candidate
+    final int bestIndex = run.testFirst(candidates.size(), (index) -> {
+      final Node<?> candidate = candidates.get(index);
+      assert (node != candidate);
 
-      final Node<?> replacement;
-      {
-        if (isListItemNode(clonedNode)) {
-          replacement = new NonTerminalNode(ParserSymbol.LIST_ITEM, Arrays.asList(candidate));
-          replacement.setExpectedSymbol(clonedNode.getExpectedSymbol());
-        } else {
-          replacement = candidate;
-        }
-      }
+      return serialize(tree, node, candidate);
+    });
 
-      clonedNode.replaceWith(replacement);
+    if (bestIndex == -1) {
+      return new Pair<>(node, node.getChildren());
+    }
 
-      final Node<?> newTree = (clonedNode == clonedTree) ? replacement : clonedTree;
-      final String serialized = serialize(newTree);
+    // the candidate is a descendant of the node, whose sub-tree is discarded anyway -> the
+    // candidate can be moved to the new position instead of being copied
+    final Node<?> candidate = candidates.get(bestIndex);
 
-      if (run.test(serialized)) {
-        best = replacement;
-        break candidates;
+    final Node<?> best;
+    {
+      if (isListItemNode(node)) {
+        best = new NonTerminalNode(ParserSymbol.LIST_ITEM, Arrays.asList(candidate));
+      } else {
+        best = candidate;
       }
-
-      replacement.replaceWith(clonedNode);
     }
 
-    if (best == clonedNode) {
-      return new Pair<>(node, node.getChildren());
-    } else {
-      best.setParentReferences();
-      best.setExpectedSymbol(node.getExpectedSymbol());
+    best.setParentReferences();
+    best.setExpectedSymbol(node.getExpectedSymbol());
 
-      return new Pair<>(best, Arrays.asList(best));
-    }
+    return new Pair<>(best, Arrays.asList(best));
   }
 
   private final Pair<Node<?>, List<Node<?>>> reduceStar(final NonTerminalNode quantifierNode,
-      final Node<?> tree, final ReductionRun run) {
-    return reduceQuantifier(quantifierNode, tree, quantifierNode.getSymbol(), run);
+      final Node<?> tree, final long treeVersion, final ReductionRun run) {
+    return reduceQuantifier(quantifierNode, tree, quantifierNode.getSymbol(), treeVersion, run);
   }
 
   private final Pair<Node<?>, List<Node<?>>> reducePlus(final NonTerminalNode quantifierNode,
-      final Node<?> tree, final ReductionRun run) {
-    return reduceQuantifier(quantifierNode, tree, quantifierNode.getSymbol(), run);
+      final Node<?> tree, final long treeVersion, final ReductionRun run) {
+    return reduceQuantifier(quantifierNode, tree, quantifierNode.getSymbol(), treeVersion, run);
   }
 
   private final Pair<Node<?>, List<Node<?>>> reduceQuantifier(final NonTerminalNode quantifierNode,
-      final Node<?> tree, final ParserSymbol symbol, final ReductionRun run) {
+      final Node<?> tree, final ParserSymbol symbol, final long treeVersion,
+      final ReductionRun run) {
     final boolean keepOne = (symbol == ParserSymbol.PLUS);
-    final List<Node<?>> reducedListItems = reduceList(quantifierNode, tree, run, keepOne);
+    final List<Node<?>> reducedListItems =
+        reduceList(quantifierNode, tree, treeVersion, run, keepOne);
 
     final NonTerminalNode newList = constructNewList(reducedListItems, symbol);
 
@@ -403,7 +394,7 @@ public final class PersesReducer implements Reducer {
   }
 
   private final List<Node<?>> reduceList(final NonTerminalNode quantifierNode,
-      final Node<?> tree, final ReductionRun run, final boolean keepOne) {
+      final Node<?> tree, final long treeVersion, final ReductionRun run, final boolean keepOne) {
     assert (quantifierNode.isQuantifierNode());
 
     final boolean TEST_EMPTY_LIST = !keepOne;
@@ -414,44 +405,68 @@ public final class PersesReducer implements Reducer {
       return listItems;
     }
 
-    final ListReductionCallback<Node<?>> callback = (list) -> {
+    // the configurations are valid as long as the tree version does not change, i.e., also in later
+    // calls (and iterations) if the tree has not been modified in the meantime
+    final ToLongFunction<List<Node<?>>> configurations;
+    {
+      final ConfigurationCache configurationCache = run.getConfigurationCache();
+
+      if (configurationCache == null) {
+        configurations = null;
+      } else {
+        final long baseConfiguration = configurationCache.hash(treeVersion, listItems);
+        configurations = (list) -> configurationCache.hash(baseConfiguration, list);
+      }
+    }
+
+    final Function<List<Node<?>>, String> serializer = (list) -> {
       if (keepOne && list.isEmpty()) {
-        return false;
+        return null;
       }
 
       final Set<Node<?>> removedNodes = new HashSet<>(listItems);
       removedNodes.removeAll(list);
 
-      final String serialized = serialize(tree, removedNodes);
-      return run.test(serialized);
+      return serialize(tree, removedNodes);
     };
 
+    final ListReductionCallback<Node<?>> callback;
+    {
+      final ListReductionCallback<Node<?>> runCallback =
+          ListReductionCallback.forRun(run, configurations, serializer);
+
+      final RemovalHistory removalHistory = run.getRemovalHistory();
+      callback = (removalHistory == null)
+          ? runCallback
+          : removalHistory.recordChecks(listItems, runCallback);
+    }
+
     return this.listReduction.reduce(listItems, callback, TEST_EMPTY_LIST);
   }
 
+  private static final long newTreeVersion(final ReductionRun run) {
+    final ConfigurationCache configurationCache = run.getConfigurationCache();
+    return (configurationCache == null) ? 0 : configurationCache.newVersion();
+  }
+
+  // NOTE: the list items are moved to the new list (the old list is discarded anyway)
   private final NonTerminalNode constructNewList(final List<Node<?>> listItems,
       final ParserSymbol symbol) {
-    final List<Node<?>> clonedListItems = new ArrayList<>(listItems.size());
-    {
-      for (final Node<?> listItem : listItems) {
-        clonedListItems.add(listItem.cloneTree());
-      }
-    }
-
-    final NonTerminalNode newList = new NonTerminalNode(symbol, clonedListItems);
+    final NonTerminalNode newList = new NonTerminalNode(symbol, new ArrayList<>(listItems));
     newList.setParentReferences();
 
     return newList;
   }
 
-  private final String serialize(final Node<?> tree) {
-    return serialize(tree, null);
-  }
-
   private final String serialize(final Node<?> tree, final Set<Node<?>> removedNodes) {
     return this.joiner.join(tree, removedNodes);
   }
 
+  private final String serialize(final Node<?> tree, final Node<?> substitutedNode,
+      final Node<?> substitute) {
+    return this.joiner.joinWithSubstitute(tree, substitutedNode, substitute);
+  }
+
   private final List<Node<?>> boundedBFS(final Node<?> node,
       final Function<Node<?>, Boolean> predicate, final int maxDepth) {
     final List<Node<?>> result = new ArrayList<>();
@@ -3,61 +3,68 @@ package i2.act.reduction.test;
 import i2.act.util.ArgumentSplitter;
 import i2.act.util.FileUtil;
 import i2.act.util.ProcessExecutor;
+import i2.act.util.ProcessTimeout;
+import i2.act.util.StreamingEncoder;
 
-public final class ExternalTestFunction implements TestFunction {
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-  private final String[] commandLine;
-
-  private final String resultFileName;
+public final class ExternalTestFunction extends RecordingTestFunction {
 
-  private final boolean keepSuccessfulPrograms;
-  private final boolean keepUnsuccessfulPrograms;
+  private final String[] commandLine;
 
-  private final String intermediateFileName;
-  private int counter;
+  private final Map<Integer, String> intermediateFileNames;
+  private final Map<Integer, StreamingEncoder> encoders;
 
   public ExternalTestFunction(final String[] commandLine, final String resultFileName,
       final boolean keepSuccessfulPrograms, final boolean keepUnsuccessfulPrograms) {
+    super(resultFileName, keepSuccessfulPrograms, keepUnsuccessfulPrograms);
+
     this.commandLine = commandLine;
-    this.resultFileName = resultFileName;
-    this.keepSuccessfulPrograms = keepSuccessfulPrograms;
-    this.keepUnsuccessfulPrograms = keepUnsuccessfulPrograms;
+    this.intermediateFileNames = new ConcurrentHashMap<>();
+    this.encoders = new ConcurrentHashMap<>();
+  }
 
-    this.intermediateFileName = FileUtil.prependBeforeFileExtension(this.resultFileName, "test");
-    this.counter = 0;
+  private final String getIntermediateFileName(final int worker) {
+    return this.intermediateFileNames.computeIfAbsent(worker, (key) -> {
+      if (worker == 0) {
+        return FileUtil.prependBeforeFileExtension(this.resultFileName, "test");
+      } else {
+        return FileUtil.prependBeforeFileExtension(this.resultFileName, "test" + worker);
+      }
+    });
   }
 
   @Override
-  public final boolean test(final String program) {
-    FileUtil.writeToFile(program, this.intermediateFileName);
+  public final boolean check(final String program, final int worker, final long timeout) {
+    final String intermediateFileName = getIntermediateFileName(worker);
+    final StreamingEncoder encoder =
+        this.encoders.computeIfAbsent(worker, (key) -> new StreamingEncoder());
+
+    FileUtil.writeToFile(program, intermediateFileName, encoder);
 
     // execute external command
     final String[] commandLine =
-        ArgumentSplitter.appendArgument(this.commandLine, this.intermediateFileName);
-    final boolean containsBug = !ProcessExecutor.executeAndCheck(commandLine);
+        ArgumentSplitter.appendArgument(this.commandLine, intermediateFileName);
 
-    if (containsBug) {
-      // copy to final location if program contains bug (may be overridden again)
-      FileUtil.writeToFile(program, this.resultFileName);
+    try {
+      return !ProcessExecutor.executeAndCheck(timeout, commandLine);
+    } catch (final ProcessTimeout exception) {
+      throw new TestTimeout(timeout);
     }
+  }
 
-    if ((containsBug && this.keepSuccessfulPrograms)
-        || (!containsBug && this.keepUnsuccessfulPrograms)) {
-      final String keptFileName = FileUtil.prependBeforeFileExtension(
-          this.resultFileName, String.format("%04d", this.counter));
-
-      FileUtil.writeToFile(program, keptFileName);
-    }
-
-    ++this.counter;
-
-    return containsBug;
+  @Override
+  public final String getIdentity() {
+    return getIdentity("test", this.commandLine);
   }
 
   @Override
   public final void cleanup() {
-    if (FileUtil.fileExists(this.intermediateFileName)) {
-      FileUtil.deleteFile(this.intermediateFileName);
+    for (final String intermediateFileName : this.intermediateFileNames.values()) {
+      if (FileUtil.fileExists(intermediateFileName)) {
+        FileUtil.deleteFile(intermediateFileName);
+      }
     }
   }
 
@@ -0,0 +1,17 @@
+package i2.act.reduction.test;
+
+public interface ParallelTestFunction extends TestFunction {
+
+  // checks the program in the context of the given worker (each worker uses its own resources,
+  // e.g., intermediate files) and must therefore be safe to call concurrently for different
+  // workers; throws a TestTimeout if the check takes longer than 'timeout' ms
+  //
+  // if the calling thread is interrupted, the result of the check is not needed anymore, i.e., the
+  // check should end as soon as possible (e.g., by killing the test process) and free the worker
+  public boolean check(final String program, final int worker, final long timeout);
+
+  // records the outcome of a check (e.g., by writing the program to disk); this is always called
+  // from the reduction thread and in a deterministic order
+  public void record(final String program, final boolean containsBug);
+
+}
@@ -0,0 +1,83 @@
+package i2.act.reduction.test;
+
+import i2.act.util.FileUtil;
+import i2.act.util.StreamingEncoder;
+
+import java.util.Arrays;
+
+// base class for test functions that write the current reduction result (and, optionally, all
+// checked candidates) to the file system
+public abstract class RecordingTestFunction implements ParallelTestFunction {
+
+  protected final String resultFileName;
+
+  private final boolean keepSuccessfulPrograms;
+  private final boolean keepUnsuccessfulPrograms;
+
+  // the results are only recorded by the reduction thread
+  private final StreamingEncoder encoder;
+
+  private int counter;
+
+  public RecordingTestFunction(final String resultFileName, final boolean keepSuccessfulPrograms,
+      final boolean keepUnsuccessfulPrograms) {
+    this.resultFileName = resultFileName;
+    this.keepSuccessfulPrograms = keepSuccessfulPrograms;
+    this.keepUnsuccessfulPrograms = keepUnsuccessfulPrograms;
+
+    this.encoder = new StreamingEncoder();
+
+    this.counter = 0;
+  }
+
+  // the identity of a test function that is given by a command line also covers the contents of
+  // the executed file (if it exists), so that changes to a test script invalidate persisted
+  // outcomes
+  protected static final String getIdentity(final String kind, final String[] commandLine) {
+    final StringBuilder identity = new StringBuilder();
+
+    identity.append(kind);
+    identity.append(Arrays.toString(commandLine));
+
+    if (commandLine.length > 0 && FileUtil.fileExists(commandLine[0])) {
+      identity.append(FileUtil.readFile(commandLine[0]));
+    }
+
+    return identity.toString();
+  }
+
+  @Override
+  public final boolean test(final String program) {
+    return test(program, NO_TIMEOUT);
+  }
+
+  @Override
+  public final boolean test(final String program, final long timeout) {
+    final boolean containsBug = check(program, 0, timeout);
+    record(program, containsBug);
+
+    return containsBug;
+  }
+
+  @Override
+  public abstract boolean check(final String program, final int worker, final long timeout);
+
+  @Override
+  public final void record(final String program, final boolean containsBug) {
+    if (containsBug) {
+      // copy to final location if program contains bug (may be overridden again)
+      FileUtil.writeToFile(program, this.resultFileName, this.encoder);
+    }
+
+    if ((containsBug && this.keepSuccessfulPrograms)
+        || (!containsBug && this.keepUnsuccessfulPrograms)) {
+      final String keptFileName = FileUtil.prependBeforeFileExtension(
+          this.resultFileName, String.format("%04d", this.counter));
+
+      FileUtil.writeToFile(program, keptFileName, this.encoder);
+    }
+
+    ++this.counter;
+  }
+
+}
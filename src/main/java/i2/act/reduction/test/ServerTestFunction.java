@@ -0,0 +1,247 @@
+package i2.act.reduction.test;
+
+import i2.act.util.ProcessExecutor;
+import i2.act.util.StreamingEncoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.spi.AbstractInterruptibleChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// sends the reduction candidates to long-running test servers (one per worker) instead of starting
+// a new process for each check (see TestServerProtocol)
+public final class ServerTestFunction extends RecordingTestFunction {
+
+  // number of times a crashed test server is restarted before the current candidate is considered
+  // to not trigger the bug
+  public static final int MAX_RESTARTS = 1;
+
+  public static final long SHUTDOWN_TIMEOUT = 1000; // ms
+
+  private final class Server {
+
+    // a blocking read from the test server ignores interrupts, but an interruptible channel is
+    // closed as soon as the thread that uses it is interrupted (e.g., because the check has been
+    // cancelled after a concurrent check has succeeded); the channel is only used for this
+    // notification: closing it kills the test server, which ends the read
+    private final class Exchange extends AbstractInterruptibleChannel {
+
+      private volatile boolean cancelled;
+
+      public final boolean run(final String program) throws IOException {
+        final Server server = Server.this;
+
+        boolean completed = false;
+        begin();
+
+        try {
+          TestServerProtocol.writeRequest(server.requests, program, server.encoder);
+          final boolean containsBug = TestServerProtocol.readResponse(server.responses);
+
+          completed = true;
+          return containsBug;
+        } finally {
+          end(completed);
+        }
+      }
+
+      public final boolean isCancelled() {
+        return this.cancelled;
+      }
+
+      @Override
+      protected final void implCloseChannel() {
+        this.cancelled = true;
+
+        Server.this.killed = true;
+        ProcessExecutor.killProcessTree(Server.this.process);
+      }
+
+    }
+
+    private final Process process;
+
+    private volatile boolean killed;
+
+    private final DataOutputStream requests;
+    private final DataInputStream responses;
+
+    private final StreamingEncoder encoder;
+
+    public Server(final Process process) {
+      this.process = process;
+      this.requests =
+          new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      this.responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+      this.encoder = new StreamingEncoder(StandardCharsets.UTF_8);
+    }
+
+    public final boolean check(final String program, final long timeout) throws IOException {
+      final ScheduledFuture<?> watchdog;
+      {
+        if (timeout == NO_TIMEOUT) {
+          watchdog = null;
+        } else {
+          // a blocking read cannot be interrupted -> kill the test server to end it
+          watchdog = ServerTestFunction.this.watchdogs.schedule(() -> {
+            this.killed = true;
+            ProcessExecutor.killProcessTree(this.process);
+          }, timeout, TimeUnit.MILLISECONDS);
+        }
+      }
+
+      final Exchange exchange = new Exchange();
+
+      final boolean containsBug;
+      try {
+        containsBug = exchange.run(program);
+      } catch (final IOException exception) {
+        if (exchange.isCancelled()) {
+          if (watchdog != null) {
+            watchdog.cancel(false);
+          }
+
+          // the result is not needed anymore
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("check has been cancelled", exception);
+        }
+
+        if (this.killed) {
+          throw new TestTimeout(timeout);
+        }
+
+        throw exception;
+      }
+
+      if (watchdog != null && !watchdog.cancel(false)) {
+        // the response arrived just in time, but the test server is (or will be) killed anyway
+        this.killed = true;
+      }
+
+      return containsBug;
+    }
+
+    public final boolean isKilled() {
+      return this.killed;
+    }
+
+    public final void shutdown() {
+      try {
+        // closing stdin should make the test server terminate gracefully
+        this.requests.close();
+
+        if (!this.process.waitFor(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          this.process.destroyForcibly();
+        }
+      } catch (final IOException exception) {
+        this.process.destroyForcibly();
+      } catch (final InterruptedException exception) {
+        this.process.destroyForcibly();
+        Thread.currentThread().interrupt();
+      }
+    }
+
+  }
+
+  private final String[] commandLine;
+
+  private final Map<Integer, Server> servers;
+
+  private final ScheduledExecutorService watchdogs;
+
+  public ServerTestFunction(final String[] commandLine, final String resultFileName,
+      final boolean keepSuccessfulPrograms, final boolean keepUnsuccessfulPrograms) {
+    super(resultFileName, keepSuccessfulPrograms, keepUnsuccessfulPrograms);
+
+    this.commandLine = commandLine;
+    this.servers = new ConcurrentHashMap<>();
+
+    this.watchdogs = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+      final Thread thread = new Thread(runnable);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private final Server getServer(final int worker) {
+    final Server server = this.servers.get(worker);
+
+    if (server != null && server.isKilled()) {
+      stopServer(worker);
+    }
+
+    return this.servers.computeIfAbsent(worker, (key) -> startServer());
+  }
+
+  private final Server startServer() {
+    final ProcessBuilder processBuilder = new ProcessBuilder(this.commandLine);
+    processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+    try {
+      return new Server(processBuilder.start());
+    } catch (final IOException exception) {
+      throw new RuntimeException("unable to start test server", exception);
+    }
+  }
+
+  private final void stopServer(final int worker) {
+    final Server server = this.servers.remove(worker);
+
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Override
+  public final boolean check(final String program, final int worker, final long timeout) {
+    for (int restarts = 0; ; ++restarts) {
+      final Server server = getServer(worker);
+
+      try {
+        return server.check(program, timeout);
+      } catch (final TestTimeout timeoutException) {
+        stopServer(worker);
+        throw timeoutException;
+      } catch (final RuntimeException exception) {
+        // the check has been cancelled (and the test server has been killed)
+        stopServer(worker);
+        throw exception;
+      } catch (final IOException exception) {
+        // the test server has crashed -> restart it (lazily)
+        stopServer(worker);
+
+        if (restarts >= MAX_RESTARTS) {
+          System.err.format("[!] test server crashed %d times on the same candidate\n",
+              restarts + 1);
+          return false;
+        }
+
+        System.err.println("[!] test server crashed; restarting it");
+      }
+    }
+  }
+
+  @Override
+  public final String getIdentity() {
+    return getIdentity("server", this.commandLine);
+  }
+
+  @Override
+  public final void cleanup() {
+    for (final Integer worker : this.servers.keySet()) {
+      stopServer(worker);
+    }
+
+    this.watchdogs.shutdownNow();
+  }
+
+}
@@ -2,8 +2,22 @@ package i2.act.reduction.test;
 
 public interface TestFunction {
 
+  public static final long NO_TIMEOUT = -1;
+
   public boolean test(final String program);
 
+  // throws a TestTimeout if the check takes longer than 'timeout' ms; test functions that do not
+  // support timeouts simply ignore it
+  default boolean test(final String program, final long timeout) {
+    return test(program);
+  }
+
+  // returns a string that identifies the test function (including everything that influences its
+  // outcomes) or 'null' if its outcomes must not be persisted across runs
+  default String getIdentity() {
+    return null;
+  }
+
   default void cleanup() {
     // intentionally left blank
   }
@@ -0,0 +1,90 @@
+package i2.act.reduction.test;
+
+import i2.act.util.StreamingEncoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+// protocol between the ServerTestFunction and a long-running test server:
+// - a request consists of the length of the reduction candidate in bytes (4-byte big-endian
+//   integer), followed by the UTF-8 encoded reduction candidate
+// - the response is a status (4-byte big-endian integer); as for the exit code of a test script,
+//   a status other than 0 signals that the reduction candidate triggers the bug
+// requests are sent to the stdin of the test server, responses are read from its stdout; the
+// test server should terminate once its stdin is closed
+public final class TestServerProtocol {
+
+  public static final int STATUS_BUG_NOT_TRIGGERED = 0;
+  public static final int STATUS_BUG_TRIGGERED = 1;
+
+  private TestServerProtocol() {
+    // intentionally left blank
+  }
+
+  // the encoder has to use UTF-8
+  public static final void writeRequest(final DataOutputStream out, final CharSequence program,
+      final StreamingEncoder encoder) throws IOException {
+    out.writeInt(StreamingEncoder.getUTF8Length(program));
+    encoder.write(program, out);
+    out.flush();
+  }
+
+  // returns 'null' if there are no more requests
+  public static final String readRequest(final DataInputStream in) throws IOException {
+    final int length;
+    try {
+      length = in.readInt();
+    } catch (final EOFException exception) {
+      return null;
+    }
+
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public static final void writeResponse(final DataOutputStream out, final boolean containsBug)
+      throws IOException {
+    out.writeInt(containsBug ? STATUS_BUG_TRIGGERED : STATUS_BUG_NOT_TRIGGERED);
+    out.flush();
+  }
+
+  public static final boolean readResponse(final DataInputStream in) throws IOException {
+    return in.readInt() != STATUS_BUG_NOT_TRIGGERED;
+  }
+
+  // answers requests from stdin until stdin is closed; can be used to implement test servers on
+  // the JVM (stdout is redirected to stderr so that the oracle cannot corrupt the protocol)
+  public static final void serve(final Predicate<String> oracle) {
+    final PrintStream protocolOut = System.out;
+    System.setOut(System.err);
+
+    try {
+      serve(System.in, protocolOut, oracle);
+    } catch (final IOException exception) {
+      throw new RuntimeException("unable to communicate with reducer", exception);
+    }
+  }
+
+  public static final void serve(final InputStream requests, final OutputStream responses,
+      final Predicate<String> oracle) throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(requests));
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(responses));
+
+    String program;
+    while ((program = readRequest(in)) != null) {
+      writeResponse(out, oracle.test(program));
+    }
+  }
+
+}
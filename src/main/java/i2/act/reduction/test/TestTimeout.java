@@ -0,0 +1,9 @@
+package i2.act.reduction.test;
+
+public final class TestTimeout extends RuntimeException {
+
+  public TestTimeout(final long timeout) {
+    super(String.format("test function did not terminate within %d ms", timeout));
+  }
+
+}
@@ -0,0 +1,319 @@
+package i2.act.reduction.util;
+
+import i2.act.packrat.Token;
+import i2.act.packrat.cst.Node;
+import i2.act.packrat.cst.TerminalNode;
+import i2.act.peg.symbols.Symbol;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// serializes candidates that only differ in their sets of removed nodes (i.e., the syntax tree
+// itself must not be modified in the meantime); produces the same output as
+// 'TokenJoiner.join(Node, Set, Map)', but caches the serializations of subtrees without removed
+// nodes, so that only the regions around the removed nodes have to be joined again
+//
+// the removed nodes should be given as a 'RemovalSet' of the joiner's tree index
+public final class IncrementalJoiner {
+
+  // upper bound for the total length of all cached fragments
+  public static final long DEFAULT_MAX_CACHED_CHARACTERS = 1L << 24;
+
+  private static final class Fragment {
+
+    private final Token firstToken;
+    private final Token lastToken;
+
+    // the joined tokens of the subtree (as if the first token was the first one of the program)
+    private final String text;
+
+    // offset of the value of the first token (i.e., behind its skipped tokens)
+    private final int valueBegin;
+
+    public Fragment(final Token firstToken, final Token lastToken, final String text,
+        final int valueBegin) {
+      this.firstToken = firstToken;
+      this.lastToken = lastToken;
+      this.text = text;
+      this.valueBegin = valueBegin;
+    }
+
+  }
+
+  private static final Fragment EMPTY_FRAGMENT = new Fragment(null, null, "", 0);
+
+  private final TokenJoiner joiner;
+  private final TreeIndex index;
+  private final Map<Symbol<?>, List<Token>> replacements;
+
+  // cached fragments by node id; once the total length of the cached fragments exceeds the limit,
+  // the least recently used fragments are evicted
+  private final Fragment[] fragments;
+  private final long maxCachedCharacters;
+  private long cachedCharacters;
+
+  // recency list of the cached fragments (by node id), from the most recently used one ('head') to
+  // the least recently used one ('tail'); this is the eviction order of 'LRUCache' without boxing
+  // the node ids
+  private final int[] previous;
+  private final int[] next;
+  private int head;
+  private int tail;
+
+  public IncrementalJoiner(final TokenJoiner joiner, final Node<?> syntaxTree,
+      final Map<Symbol<?>, List<Token>> replacements) {
+    this(joiner, syntaxTree, replacements, DEFAULT_MAX_CACHED_CHARACTERS);
+  }
+
+  public IncrementalJoiner(final TokenJoiner joiner, final Node<?> syntaxTree,
+      final Map<Symbol<?>, List<Token>> replacements, final long maxCachedCharacters) {
+    this.joiner = joiner;
+    this.index = new TreeIndex(syntaxTree);
+    this.replacements = replacements;
+
+    this.fragments = new Fragment[this.index.size()];
+    this.maxCachedCharacters = maxCachedCharacters;
+
+    this.previous = new int[this.index.size()];
+    this.next = new int[this.index.size()];
+    this.head = TreeIndex.NO_NODE;
+    this.tail = TreeIndex.NO_NODE;
+  }
+
+  public final Node<?> getSyntaxTree() {
+    return this.index.getRoot();
+  }
+
+  public final TreeIndex getTreeIndex() {
+    return this.index;
+  }
+
+  public final RemovalSet createRemovalSet() {
+    return new RemovalSet(this.index);
+  }
+
+  public final String join() {
+    return join(null);
+  }
+
+  public final String join(final Set<Node<?>> removedNodes) {
+    final Serialization serialization = new Serialization(removedNodes);
+    final int root = 0;
+
+    if (serialization.isRemoved(root)) {
+      serialization.appendReplacement(root);
+    } else if (serialization.isModified(root)) {
+      serialization.appendChildren(root);
+    } else {
+      serialization.append(getFragment(root));
+    }
+
+    return serialization.builder.toString();
+  }
+
+  private final Fragment getFragment(final int id) {
+    final Fragment cachedFragment = this.fragments[id];
+
+    if (cachedFragment != null) {
+      unlink(id);
+      linkFirst(id);
+
+      return cachedFragment;
+    }
+
+    // the terminal nodes of the subtree (in pre-order) are exactly its tokens
+    final List<Token> tokens = new ArrayList<>();
+
+    final int subtreeEnd = this.index.getSubtreeEnd(id);
+    for (int descendant = id; descendant < subtreeEnd; ++descendant) {
+      final Node<?> node = this.index.getNode(descendant);
+
+      if (node instanceof TerminalNode) {
+        tokens.add(((TerminalNode) node).getToken()); // NOTE: this includes all skipped tokens
+      }
+    }
+
+    final Fragment fragment;
+    {
+      if (tokens.isEmpty()) {
+        fragment = EMPTY_FRAGMENT;
+      } else {
+        final Token firstToken = tokens.get(0);
+        final Token lastToken = tokens.get(tokens.size() - 1);
+
+        int valueBegin = 0;
+        for (final Token skippedToken : firstToken.getSkippedTokensBefore()) {
+          valueBegin += skippedToken.getValue().length();
+        }
+
+        fragment = new Fragment(firstToken, lastToken, this.joiner.join(tokens), valueBegin);
+      }
+    }
+
+    this.fragments[id] = fragment;
+    this.cachedCharacters += fragment.text.length();
+    linkFirst(id);
+
+    // NOTE: a fragment that exceeds the limit on its own is evicted right away
+    while (this.cachedCharacters > this.maxCachedCharacters) {
+      evict(this.tail);
+    }
+
+    return fragment;
+  }
+
+  private final void evict(final int id) {
+    unlink(id);
+
+    this.cachedCharacters -= this.fragments[id].text.length();
+    this.fragments[id] = null;
+  }
+
+  private final void linkFirst(final int id) {
+    this.previous[id] = TreeIndex.NO_NODE;
+    this.next[id] = this.head;
+
+    if (this.head == TreeIndex.NO_NODE) {
+      this.tail = id;
+    } else {
+      this.previous[this.head] = id;
+    }
+
+    this.head = id;
+  }
+
+  private final void unlink(final int id) {
+    final int previous = this.previous[id];
+    final int next = this.next[id];
+
+    if (previous == TreeIndex.NO_NODE) {
+      this.head = next;
+    } else {
+      this.next[previous] = next;
+    }
+
+    if (next == TreeIndex.NO_NODE) {
+      this.tail = previous;
+    } else {
+      this.previous[next] = previous;
+    }
+  }
+
+  private final class Serialization {
+
+    private final Set<Node<?>> removedNodes;
+
+    private final BitSet removed;
+
+    // all (transitive) parents of removed nodes
+    private final BitSet modified;
+
+    private final StringBuilder builder;
+    private Token lastToken;
+
+    public Serialization(final Set<Node<?>> removedNodes) {
+      final TreeIndex index = IncrementalJoiner.this.index;
+
+      this.removedNodes = removedNodes;
+
+      if (removedNodes instanceof RemovalSet && ((RemovalSet) removedNodes).getIndex() == index) {
+        this.removed = ((RemovalSet) removedNodes).getBits();
+      } else {
+        this.removed = new BitSet(index.size());
+
+        if (removedNodes != null) {
+          for (final Node<?> removedNode : removedNodes) {
+            final int id = index.getId(removedNode);
+
+            if (id != TreeIndex.NO_NODE) {
+              this.removed.set(id);
+            }
+          }
+        }
+      }
+
+      this.modified = new BitSet(index.size());
+
+      for (int id = this.removed.nextSetBit(0); id != -1; id = this.removed.nextSetBit(id + 1)) {
+        int parent = index.getParent(id);
+
+        while (parent != TreeIndex.NO_NODE && !this.modified.get(parent)) {
+          this.modified.set(parent);
+          parent = index.getParent(parent);
+        }
+      }
+
+      this.builder = new StringBuilder();
+    }
+
+    public final boolean isRemoved(final int id) {
+      return this.removed.get(id);
+    }
+
+    public final boolean isModified(final int id) {
+      return this.modified.get(id);
+    }
+
+    public final void appendChildren(final int id) {
+      final TreeIndex index = IncrementalJoiner.this.index;
+
+      for (int child = index.getFirstChild(id); child != TreeIndex.NO_NODE;
+          child = index.getNextSibling(child)) {
+        if (isRemoved(child)) {
+          appendReplacement(child);
+        } else if (isModified(child)) {
+          appendChildren(child);
+        } else {
+          append(getFragment(child));
+        }
+      }
+    }
+
+    public final void appendReplacement(final int id) {
+      final List<Token> tokens = new ArrayList<>();
+      IncrementalJoiner.this.joiner.addReplacementTokens(tokens,
+          IncrementalJoiner.this.index.getNode(id), this.removedNodes,
+          IncrementalJoiner.this.replacements);
+
+      for (final Token token : tokens) {
+        append(token);
+      }
+    }
+
+    public final void append(final Token token) {
+      final TokenJoiner joiner = IncrementalJoiner.this.joiner;
+
+      joiner.appendLineBreak(this.builder, this.lastToken, token);
+
+      for (final Token skippedToken : token.getSkippedTokensBefore()) {
+        this.builder.append(skippedToken.getValue());
+      }
+
+      joiner.appendSeparator(this.builder, this.lastToken, token);
+
+      this.builder.append(token.getValue());
+
+      this.lastToken = token;
+    }
+
+    public final void append(final Fragment fragment) {
+      if (fragment.firstToken == null) {
+        return;
+      }
+
+      final TokenJoiner joiner = IncrementalJoiner.this.joiner;
+
+      joiner.appendLineBreak(this.builder, this.lastToken, fragment.firstToken);
+      this.builder.append(fragment.text, 0, fragment.valueBegin);
+      joiner.appendSeparator(this.builder, this.lastToken, fragment.firstToken);
+      this.builder.append(fragment.text, fragment.valueBegin, fragment.text.length());
+
+      this.lastToken = fragment.lastToken;
+    }
+
+  }
+
+}
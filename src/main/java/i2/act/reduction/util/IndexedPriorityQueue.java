@@ -0,0 +1,162 @@
+package i2.act.reduction.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+// priority queue of ids in the range '0' (inclusive) to 'capacity' (exclusive), e.g., the ids of a
+// 'TreeIndex'; the element with the lexicographically largest priority vector comes first
+//
+// the priority vectors (which all have the same length) are stored in a flat array indexed by the
+// ids, so that neither the queue operations nor the comparisons allocate any objects
+//
+// NOTE: the priority vectors should be unique; otherwise, the order of elements with the same
+// priority vector is unspecified
+public final class IndexedPriorityQueue {
+
+  private static final int NOT_CONTAINED = -1;
+
+  private final int priorityLength;
+  private final int[] priorities;
+
+  private final int[] heap;
+  private final int[] positions;
+  private int size;
+
+  public IndexedPriorityQueue(final int capacity, final int priorityLength) {
+    this.priorityLength = priorityLength;
+    this.priorities = new int[capacity * priorityLength];
+
+    this.heap = new int[capacity];
+    this.positions = new int[capacity];
+    Arrays.fill(this.positions, NOT_CONTAINED);
+  }
+
+  public final int size() {
+    return this.size;
+  }
+
+  public final boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  public final boolean contains(final int id) {
+    return this.positions[id] != NOT_CONTAINED;
+  }
+
+  // returns the priority vector of the id; only valid while the id is contained in the queue
+  public final int getPriority(final int id, final int index) {
+    assert (index >= 0 && index < this.priorityLength);
+    return this.priorities[id * this.priorityLength + index];
+  }
+
+  public final void add(final int id, final int[] priority) {
+    assert (priority.length == this.priorityLength);
+
+    if (contains(id)) {
+      throw new IllegalStateException("id " + id + " is already contained in the queue");
+    }
+
+    System.arraycopy(priority, 0, this.priorities, id * this.priorityLength, this.priorityLength);
+
+    final int position = this.size++;
+    this.heap[position] = id;
+    this.positions[id] = position;
+
+    siftUp(position);
+  }
+
+  public final int peek() {
+    if (this.size == 0) {
+      throw new NoSuchElementException();
+    }
+
+    return this.heap[0];
+  }
+
+  public final int remove() {
+    final int first = peek();
+
+    final int last = this.heap[--this.size];
+    this.positions[first] = NOT_CONTAINED;
+
+    if (this.size > 0) {
+      this.heap[0] = last;
+      this.positions[last] = 0;
+
+      siftDown(0);
+    }
+
+    return first;
+  }
+
+  private final void siftUp(final int startPosition) {
+    final int id = this.heap[startPosition];
+
+    int position = startPosition;
+    while (position > 0) {
+      final int parentPosition = (position - 1) / 2;
+      final int parent = this.heap[parentPosition];
+
+      if (!comesFirst(id, parent)) {
+        break;
+      }
+
+      this.heap[position] = parent;
+      this.positions[parent] = position;
+
+      position = parentPosition;
+    }
+
+    this.heap[position] = id;
+    this.positions[id] = position;
+  }
+
+  private final void siftDown(final int startPosition) {
+    final int id = this.heap[startPosition];
+
+    int position = startPosition;
+    while (true) {
+      int childPosition = 2 * position + 1;
+
+      if (childPosition >= this.size) {
+        break;
+      }
+
+      if (childPosition + 1 < this.size
+          && comesFirst(this.heap[childPosition + 1], this.heap[childPosition])) {
+        ++childPosition;
+      }
+
+      final int child = this.heap[childPosition];
+
+      if (!comesFirst(child, id)) {
+        break;
+      }
+
+      this.heap[position] = child;
+      this.positions[child] = position;
+
+      position = childPosition;
+    }
+
+    this.heap[position] = id;
+    this.positions[id] = position;
+  }
+
+  private final boolean comesFirst(final int id1, final int id2) {
+    final int offset1 = id1 * this.priorityLength;
+    final int offset2 = id2 * this.priorityLength;
+
+    for (int index = 0; index < this.priorityLength; ++index) {
+      final int priority1 = this.priorities[offset1 + index];
+      final int priority2 = this.priorities[offset2 + index];
+
+      if (priority1 != priority2) {
+        return priority1 > priority2;
+      }
+    }
+
+    return false;
+  }
+
+}
@@ -0,0 +1,131 @@
+package i2.act.reduction.util;
+
+// set of 'long' values (e.g., hashes) that does not box its elements: the values are stored in a
+// single array with open addressing and linear probing
+//
+// NOTE: '0' marks an empty slot of the table, i.e., the value '0' is tracked separately
+public final class LongHashSet {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  // the table is doubled once it is more than half full
+  private static final int MAX_LOAD_NUMERATOR = 1;
+  private static final int MAX_LOAD_DENOMINATOR = 2;
+
+  private long[] table;
+  private int size;
+
+  private boolean containsZero;
+
+  public LongHashSet() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public LongHashSet(final int expectedSize) {
+    this.table = new long[tableSize(expectedSize)];
+  }
+
+  public final int size() {
+    return this.size + (this.containsZero ? 1 : 0);
+  }
+
+  public final boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public final boolean contains(final long value) {
+    if (value == 0) {
+      return this.containsZero;
+    }
+
+    final long[] table = this.table;
+    final int mask = table.length - 1;
+
+    for (int slot = slot(value, mask); ; slot = (slot + 1) & mask) {
+      final long element = table[slot];
+
+      if (element == value) {
+        return true;
+      }
+
+      if (element == 0) {
+        return false;
+      }
+    }
+  }
+
+  // returns 'true' if the value has not been contained in the set before
+  public final boolean add(final long value) {
+    if (value == 0) {
+      final boolean added = !this.containsZero;
+      this.containsZero = true;
+
+      return added;
+    }
+
+    if (!insert(this.table, value)) {
+      return false;
+    }
+
+    ++this.size;
+
+    if (this.size * MAX_LOAD_DENOMINATOR > this.table.length * MAX_LOAD_NUMERATOR) {
+      grow();
+    }
+
+    return true;
+  }
+
+  public final void clear() {
+    this.table = new long[DEFAULT_CAPACITY];
+    this.size = 0;
+    this.containsZero = false;
+  }
+
+  private final void grow() {
+    final long[] newTable = new long[this.table.length * 2];
+
+    for (final long element : this.table) {
+      if (element != 0) {
+        insert(newTable, element);
+      }
+    }
+
+    this.table = newTable;
+  }
+
+  private static final boolean insert(final long[] table, final long value) {
+    final int mask = table.length - 1;
+
+    for (int slot = slot(value, mask); ; slot = (slot + 1) & mask) {
+      final long element = table[slot];
+
+      if (element == value) {
+        return false;
+      }
+
+      if (element == 0) {
+        table[slot] = value;
+        return true;
+      }
+    }
+  }
+
+  private static final int slot(final long value, final int mask) {
+    // the values may be hashes with a good distribution, but not necessarily in the lower bits
+    final long mixed = value * 0x9E3779B97F4A7C15L;
+    return (int) (mixed ^ (mixed >>> 32)) & mask;
+  }
+
+  private static final int tableSize(final int expectedSize) {
+    final int minimumSize = Math.max(expectedSize, 1) * MAX_LOAD_DENOMINATOR / MAX_LOAD_NUMERATOR;
+
+    int tableSize = DEFAULT_CAPACITY;
+    while (tableSize < minimumSize) {
+      tableSize *= 2;
+    }
+
+    return tableSize;
+  }
+
+}
@@ -0,0 +1,149 @@
+package i2.act.reduction.util;
+
+import i2.act.packrat.cst.Node;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// set of removed nodes of an indexed syntax tree (see 'TreeIndex'), stored as a bit set of the
+// node ids; can be used wherever a 'Set<Node<?>>' of removed nodes is expected, but copying it or
+// checking the membership of an id is much cheaper
+public final class RemovalSet extends AbstractSet<Node<?>> {
+
+  private final TreeIndex index;
+  private final BitSet removed;
+
+  public RemovalSet(final TreeIndex index) {
+    this(index, new BitSet(index.size()));
+  }
+
+  private RemovalSet(final TreeIndex index, final BitSet removed) {
+    this.index = index;
+    this.removed = removed;
+  }
+
+  public final TreeIndex getIndex() {
+    return this.index;
+  }
+
+  final BitSet getBits() {
+    return this.removed;
+  }
+
+  public final RemovalSet copy() {
+    return new RemovalSet(this.index, (BitSet) this.removed.clone());
+  }
+
+  public final boolean contains(final int id) {
+    return this.removed.get(id);
+  }
+
+  public final boolean add(final int id) {
+    final boolean added = !this.removed.get(id);
+    this.removed.set(id);
+
+    return added;
+  }
+
+  public final boolean remove(final int id) {
+    final boolean wasRemoved = this.removed.get(id);
+    this.removed.clear(id);
+
+    return wasRemoved;
+  }
+
+  @Override
+  public final boolean contains(final Object object) {
+    if (!(object instanceof Node)) {
+      return false;
+    }
+
+    final int id = this.index.getId((Node<?>) object);
+    return id != TreeIndex.NO_NODE && this.removed.get(id);
+  }
+
+  @Override
+  public final boolean add(final Node<?> node) {
+    final int id = this.index.getId(node);
+    assert (id != TreeIndex.NO_NODE) : "node is not part of the indexed tree";
+
+    return add(id);
+  }
+
+  @Override
+  public final boolean remove(final Object object) {
+    if (!(object instanceof Node)) {
+      return false;
+    }
+
+    final int id = this.index.getId((Node<?>) object);
+    return id != TreeIndex.NO_NODE && remove(id);
+  }
+
+  @Override
+  public final boolean removeAll(final Collection<?> objects) {
+    boolean modified = false;
+
+    for (final Object object : objects) {
+      modified |= remove(object);
+    }
+
+    return modified;
+  }
+
+  @Override
+  public final void clear() {
+    this.removed.clear();
+  }
+
+  @Override
+  public final boolean isEmpty() {
+    return this.removed.isEmpty();
+  }
+
+  @Override
+  public final int size() {
+    return this.removed.cardinality();
+  }
+
+  @Override
+  public final Iterator<Node<?>> iterator() {
+    return new Iterator<Node<?>>() {
+
+      private int nextId = RemovalSet.this.removed.nextSetBit(0);
+      private int lastId = TreeIndex.NO_NODE;
+
+      @Override
+      public final boolean hasNext() {
+        return this.nextId != -1;
+      }
+
+      @Override
+      public final Node<?> next() {
+        if (this.nextId == -1) {
+          throw new NoSuchElementException();
+        }
+
+        this.lastId = this.nextId;
+        this.nextId = RemovalSet.this.removed.nextSetBit(this.nextId + 1);
+
+        return RemovalSet.this.index.getNode(this.lastId);
+      }
+
+      @Override
+      public final void remove() {
+        if (this.lastId == TreeIndex.NO_NODE) {
+          throw new IllegalStateException();
+        }
+
+        RemovalSet.this.removed.clear(this.lastId);
+        this.lastId = TreeIndex.NO_NODE;
+      }
+
+    };
+  }
+
+}
@@ -0,0 +1,174 @@
+package i2.act.reduction.util;
+
+import i2.act.packrat.cst.Node;
+import i2.act.packrat.cst.TerminalNode;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// sizes and numbers of terminals of sub-trees, i.e., the same values as 'Node.size()' and
+// 'Node.numberOfTerminals()', but each of them is only computed once (in a single post-order pass
+// over the sub-tree of the first node that is queried)
+//
+// NOTE: if the tree is modified, the weights have to be patched via 'replace' or 'prune';
+// otherwise, the weights of the ancestors of the modified node are outdated
+public final class SubtreeWeights {
+
+  private final Map<Node<?>, Long> weights;
+
+  public SubtreeWeights() {
+    this.weights = new IdentityHashMap<>();
+  }
+
+  public SubtreeWeights(final Node<?> syntaxTree) {
+    this();
+    compute(syntaxTree);
+  }
+
+  public final int size(final Node<?> node) {
+    return getSize(getWeight(node));
+  }
+
+  public final int numberOfTerminals(final Node<?> node) {
+    return getNumberOfTerminals(getWeight(node));
+  }
+
+  // has to be called _before_ 'oldNode' is replaced with 'newNode' in the tree
+  public final void replace(final Node<?> oldNode, final Node<?> newNode) {
+    if (oldNode == newNode) {
+      return;
+    }
+
+    final long oldWeight = getWeight(oldNode);
+    removeWeights(oldNode);
+
+    final long newWeight = getWeight(newNode);
+
+    patchAncestors(oldNode,
+        getSize(newWeight) - getSize(oldWeight),
+        getNumberOfTerminals(newWeight) - getNumberOfTerminals(oldWeight));
+  }
+
+  // has to be called _before_ the node is removed from the tree
+  public final void prune(final Node<?> node) {
+    if (!this.weights.containsKey(node)) {
+      // the node is part of an already pruned sub-tree (or has never been queried)
+      return;
+    }
+
+    final long weight = this.weights.get(node);
+    removeWeights(node);
+
+    patchAncestors(node, -getSize(weight), -getNumberOfTerminals(weight));
+  }
+
+  private final void patchAncestors(final Node<?> node, final int sizeDelta,
+      final int terminalsDelta) {
+    if (sizeDelta == 0 && terminalsDelta == 0) {
+      return;
+    }
+
+    // NOTE: if the weight of a node is known, the weights of all of its descendants are known as
+    // well, i.e., the patching can stop at the first ancestor without a weight
+    Node<?> ancestor = node.getParent();
+    while (ancestor != null) {
+      final Long weight = this.weights.get(ancestor);
+
+      if (weight == null) {
+        break;
+      }
+
+      this.weights.put(ancestor, pack(getSize(weight) + sizeDelta,
+          getNumberOfTerminals(weight) + terminalsDelta));
+
+      ancestor = ancestor.getParent();
+    }
+  }
+
+  private final long getWeight(final Node<?> node) {
+    final Long weight = this.weights.get(node);
+
+    if (weight != null) {
+      return weight;
+    }
+
+    return compute(node);
+  }
+
+  private final long compute(final Node<?> subtree) {
+    // iterative post-order traversal: each node is visited twice, its weight is computed when it is
+    // visited for the second time (i.e., after all of its children)
+    final List<Node<?>> stack = new ArrayList<>();
+    final List<Boolean> expanded = new ArrayList<>();
+
+    stack.add(subtree);
+    expanded.add(false);
+
+    while (!stack.isEmpty()) {
+      final int top = stack.size() - 1;
+      final Node<?> node = stack.get(top);
+
+      if (this.weights.containsKey(node)) {
+        stack.remove(top);
+        expanded.remove(top);
+        continue;
+      }
+
+      if (!expanded.get(top)) {
+        expanded.set(top, true);
+
+        for (final Node<?> child : node.getChildren()) {
+          if (!this.weights.containsKey(child)) {
+            stack.add(child);
+            expanded.add(false);
+          }
+        }
+      } else {
+        stack.remove(top);
+        expanded.remove(top);
+
+        int size = 1;
+        int numberOfTerminals = (node instanceof TerminalNode) ? 1 : 0;
+
+        for (final Node<?> child : node.getChildren()) {
+          final long childWeight = this.weights.get(child);
+
+          size += getSize(childWeight);
+          numberOfTerminals += getNumberOfTerminals(childWeight);
+        }
+
+        this.weights.put(node, pack(size, numberOfTerminals));
+      }
+    }
+
+    return this.weights.get(subtree);
+  }
+
+  private final void removeWeights(final Node<?> subtree) {
+    final List<Node<?>> stack = new ArrayList<>();
+    stack.add(subtree);
+
+    while (!stack.isEmpty()) {
+      final Node<?> node = stack.remove(stack.size() - 1);
+
+      if (this.weights.remove(node) != null) {
+        stack.addAll(node.getChildren());
+      }
+    }
+  }
+
+  private static final long pack(final int size, final int numberOfTerminals) {
+    return ((long) size << 32) | (numberOfTerminals & 0xFFFFFFFFL);
+  }
+
+  private static final int getSize(final long weight) {
+    return (int) (weight >>> 32);
+  }
+
+  private static final int getNumberOfTerminals(final long weight) {
+    return (int) weight;
+  }
+
+}
@@ -17,15 +17,75 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
 
 public final class TokenJoiner {
 
+  // the memoized decisions are discarded if there are more of them
+  public static final int MAX_MEMOIZED_SEPARATOR_DECISIONS = 1 << 16;
+
+  // whether two tokens need a separator only depends on their symbols and values (and the values of
+  // the skipped tokens in between); thus, the decision can be shared between all serializations
+  private static final class SeparatorKey {
+
+    private final LexerSymbol firstSymbol;
+    private final String firstValue;
+
+    private final String skippedValues;
+
+    private final LexerSymbol secondSymbol;
+    private final String secondValue;
+
+    private final int hashCode;
+
+    public SeparatorKey(final Token firstToken, final Token secondToken) {
+      this.firstSymbol = firstToken.getTokenSymbol();
+      this.firstValue = firstToken.getValue();
+      this.skippedValues = getSkippedValues(secondToken);
+      this.secondSymbol = secondToken.getTokenSymbol();
+      this.secondValue = secondToken.getValue();
+
+      this.hashCode = Objects.hash(System.identityHashCode(this.firstSymbol), this.firstValue,
+          this.skippedValues, System.identityHashCode(this.secondSymbol), this.secondValue);
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      }
+
+      if (!(other instanceof SeparatorKey)) {
+        return false;
+      }
+
+      final SeparatorKey otherKey = (SeparatorKey) other;
+
+      return this.hashCode == otherKey.hashCode
+          && this.firstSymbol == otherKey.firstSymbol
+          && this.secondSymbol == otherKey.secondSymbol
+          && this.firstValue.equals(otherKey.firstValue)
+          && this.secondValue.equals(otherKey.secondValue)
+          && this.skippedValues.equals(otherKey.skippedValues);
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+  }
+
   private final boolean tryFormat;
 
   private final String separator;
   private final Lexer lexer;
 
+  private final Map<SeparatorKey, Boolean> separatorDecisions;
+
   public TokenJoiner(final boolean tryFormat, final Grammar grammar) {
     this(tryFormat, grammar, " ");
   }
@@ -34,6 +94,7 @@ public final class TokenJoiner {
     this.tryFormat = tryFormat;
     this.separator = separator;
     this.lexer = Lexer.forGrammar(grammar);
+    this.separatorDecisions = new ConcurrentHashMap<>();
   }
 
   public final String getSeparator() {
@@ -83,22 +144,44 @@ public final class TokenJoiner {
       return false;
     }
 
-    final TokenStream tokens;
-    {
-      final String joined;
-      {
-        final StringBuilder builder = new StringBuilder();
+    final SeparatorKey key = new SeparatorKey(firstToken, secondToken);
 
-        builder.append(firstToken.getValue());
+    final Boolean memoizedDecision = this.separatorDecisions.get(key);
+    if (memoizedDecision != null) {
+      return memoizedDecision;
+    }
 
-        for (final Token skippedToken : secondToken.getSkippedTokensBefore()) {
-          builder.append(skippedToken.getValue());
-        }
+    final boolean decision = lexSeparatorDecision(key);
 
-        builder.append(secondToken.getValue());
+    if (this.separatorDecisions.size() >= MAX_MEMOIZED_SEPARATOR_DECISIONS) {
+      this.separatorDecisions.clear();
+    }
+    this.separatorDecisions.put(key, decision);
 
-        joined = builder.toString();
-      }
+    return decision;
+  }
+
+  private static final String getSkippedValues(final Token token) {
+    final List<Token> skippedTokens = token.getSkippedTokensBefore();
+
+    if (skippedTokens.isEmpty()) {
+      return "";
+    }
+
+    final StringBuilder builder = new StringBuilder();
+
+    for (final Token skippedToken : skippedTokens) {
+      builder.append(skippedToken.getValue());
+    }
+
+    return builder.toString();
+  }
+
+  // checks if the lexer splits the concatenation of both tokens into the same two tokens
+  private final boolean lexSeparatorDecision(final SeparatorKey key) {
+    final TokenStream tokens;
+    {
+      final String joined = key.firstValue + key.skippedValues + key.secondValue;
 
       try {
         tokens = this.lexer.lex(joined, true);
@@ -111,24 +194,24 @@ public final class TokenJoiner {
       return true;
     }
 
-    if (firstToken.getTokenSymbol() == null) {
-      assert (secondToken.getTokenSymbol() != null);
+    if (key.firstSymbol == null) {
+      assert (key.secondSymbol != null);
 
-      // check if last token in lexed token stream matches 'secondToken'
+      // check if last token in lexed token stream matches the second token
       final Token lexedLastToken = tokens.at(tokens.numberOfTokens() - 1);
-      return lexedLastToken.getTokenSymbol() != secondToken.getTokenSymbol();
-    } else if (secondToken.getTokenSymbol() == null) {
-      assert (firstToken.getTokenSymbol() != null);
+      return lexedLastToken.getTokenSymbol() != key.secondSymbol;
+    } else if (key.secondSymbol == null) {
+      assert (key.firstSymbol != null);
 
-      // check if first token in lexed token stream matches 'firstToken'
+      // check if first token in lexed token stream matches the first token
       final Token lexedFirstToken = tokens.at(0);
-      return lexedFirstToken.getTokenSymbol() != firstToken.getTokenSymbol();
+      return lexedFirstToken.getTokenSymbol() != key.firstSymbol;
     } else {
       final Token lexedFirstToken = tokens.at(0);
       final Token lexedLastToken = tokens.at(tokens.numberOfTokens() - 1);
 
-      return lexedFirstToken.getTokenSymbol() != firstToken.getTokenSymbol()
-          || lexedLastToken.getTokenSymbol() != secondToken.getTokenSymbol();
+      return lexedFirstToken.getTokenSymbol() != key.firstSymbol
+          || lexedLastToken.getTokenSymbol() != key.secondSymbol;
     }
   }
 
@@ -184,27 +267,13 @@ public final class TokenJoiner {
 
     Token lastToken = null;
     for (final Token token : tokens) {
-      int indentation = -1;
-
-      if (this.tryFormat) {
-        indentation = format(lastToken, token);
-
-        if (indentation >= 0) {
-          builder.append("\n");
-
-          while (indentation-- > 0) {
-            builder.append(" ");
-          }
-        }
-      }
+      appendLineBreak(builder, lastToken, token);
 
       for (final Token skippedToken : token.getSkippedTokensBefore()) {
         builder.append(skippedToken.getValue());
       }
 
-      if (indentation == -1 && needsSeparator(lastToken, token)) {
-        builder.append(this.separator);
-      }
+      appendSeparator(builder, lastToken, token);
 
       builder.append(token.getValue());
 
@@ -214,6 +283,31 @@ public final class TokenJoiner {
     return builder.toString();
   }
 
+  // the following two methods append everything that goes between two tokens (except for the
+  // skipped tokens that are placed between the line break and the separator)
+
+  final void appendLineBreak(final StringBuilder builder, final Token lastToken,
+      final Token token) {
+    if (this.tryFormat) {
+      int indentation = format(lastToken, token);
+
+      if (indentation >= 0) {
+        builder.append("\n");
+
+        while (indentation-- > 0) {
+          builder.append(" ");
+        }
+      }
+    }
+  }
+
+  final void appendSeparator(final StringBuilder builder, final Token lastToken,
+      final Token token) {
+    if (needsSeparator(lastToken, token)) {
+      builder.append(this.separator);
+    }
+  }
+
   public final String join(final TokenStream tokens) {
     return join(tokens.getTokens());
   }
@@ -228,26 +322,79 @@ public final class TokenJoiner {
 
   public final String join(final Node<?> syntaxTree, final Set<Node<?>> removedNodes,
       final Map<Symbol<?>, List<Token>> replacements) {
+    return join(syntaxTree, removedNodes, replacements, null);
+  }
+
+  // joins the tree as if 'substitutedNode' was replaced with 'substitute' (which may be 'null'),
+  // but without modifying or copying the tree
+  public final String joinWithSubstitute(final Node<?> syntaxTree, final Node<?> substitutedNode,
+      final Node<?> substitute) {
+    return joinWithSubstitutes(syntaxTree,
+        (node) -> (node == substitutedNode) ? substitute : node);
+  }
+
+  // joins the tree as if each node was replaced with 'substitutes.apply(node)', i.e., with the node
+  // itself if it is not replaced, or with 'null' if it is deleted; the tree is neither modified nor
+  // copied, and the substitutes are joined as they are (i.e., without further substitutions)
+  public final String joinWithSubstitutes(final Node<?> syntaxTree,
+      final UnaryOperator<Node<?>> substitutes) {
+    return join(syntaxTree, null, null, substitutes);
+  }
+
+  private final String join(final Node<?> syntaxTree, final Set<Node<?>> removedNodes,
+      final Map<Symbol<?>, List<Token>> replacements, final UnaryOperator<Node<?>> substitutes) {
     if (syntaxTree == null) {
       return "";
     }
 
     final List<Token> tokens = new ArrayList<>();
 
-    syntaxTree.accept(new SyntaxTreeVisitor<Void, Void>() {
+    syntaxTree.accept(createTokenCollector(tokens, removedNodes, replacements, substitutes), null);
+
+    final TokenStream tokenStream = new TokenStream(tokens);
+    return join(tokenStream);
+  }
+
+  private final SyntaxTreeVisitor<Void, Void> createTokenCollector(final List<Token> tokens,
+      final Set<Node<?>> removedNodes, final Map<Symbol<?>, List<Token>> replacements,
+      final UnaryOperator<Node<?>> substitutes) {
+    return new SyntaxTreeVisitor<Void, Void>() {
 
       private final boolean keep(final Node<?> node) {
         return removedNodes == null || !removedNodes.contains(node);
       }
 
+      // returns 'true' if the node has been substituted
+      private final boolean substitute(final Node<?> node) {
+        if (substitutes == null) {
+          return false;
+        }
+
+        final Node<?> substitute = substitutes.apply(node);
+
+        if (substitute == node) {
+          return false;
+        }
+
+        if (substitute != null) {
+          substitute.accept(createTokenCollector(tokens, removedNodes, replacements, null), null);
+        }
+
+        return true;
+      }
+
       @Override
       public final Void visit(final NonTerminalNode node, final Void parameter) {
+        if (substitute(node)) {
+          return null;
+        }
+
         if (keep(node)) {
           for (final Node<?> child : node.getChildren()) {
             child.accept(this, parameter);
           }
         } else {
-          addTokensForReplacement(node);
+          addReplacementTokens(tokens, node, removedNodes, replacements);
         }
 
         return null;
@@ -255,150 +402,120 @@ public final class TokenJoiner {
 
       @Override
       public final Void visit(final TerminalNode node, final Void parameter) {
+        if (substitute(node)) {
+          return null;
+        }
+
         if (keep(node)) {
           tokens.add(node.getToken()); // NOTE: this includes all skipped tokens
         } else {
-          addTokensForReplacement(node);
+          addReplacementTokens(tokens, node, removedNodes, replacements);
         }
 
         return null;
       }
 
-      private final SourcePosition getBegin(final Node<?> node) {
-        if (node instanceof TerminalNode) {
-          final Token token = ((TerminalNode) node).getToken();
-          return token.getBegin();
-        }
-
-        for (final Node<?> child : node.getChildren()) {
-          final SourcePosition begin = getBegin(child);
-          if (begin != SourcePosition.UNKNOWN) {
-            return begin;
-          }
-        }
-
-        return SourcePosition.UNKNOWN;
-      }
+    };
+  }
 
-      private final SourcePosition getEnd(final Node<?> node) {
-        if (node instanceof TerminalNode) {
-          final Token token = ((TerminalNode) node).getToken();
-          return token.getEnd();
-        }
+  // adds the tokens that replace a removed node
+  final void addReplacementTokens(final List<Token> tokens, final Node<?> node,
+      final Set<Node<?>> removedNodes, final Map<Symbol<?>, List<Token>> replacements) {
+    if (replacements == null) {
+      return;
+    }
 
-        for (int childIndex = node.numberOfChildren() - 1; childIndex >= 0; --childIndex) {
-          final Node<?> child = node.getChild(childIndex);
+    if (node instanceof NonTerminalNode && isNullableListItem(node, removedNodes)) {
+      return;
+    }
 
-          final SourcePosition end = getEnd(child);
-          if (end != SourcePosition.UNKNOWN) {
-            return end;
-          }
-        }
+    assert (node.getExpectedSymbol() != null);
+    final List<Token> replacement = replacements.getOrDefault(node.getExpectedSymbol(), null);
 
-        return SourcePosition.UNKNOWN;
-      }
+    if (replacement == null || replacement.isEmpty()) {
+      return;
+    }
 
-      private final void addTokensForReplacement(final Node<?> node) {
-        if (node instanceof NonTerminalNode) {
-          addTokensForReplacement((NonTerminalNode) node);
-        } else {
-          assert (node instanceof TerminalNode);
-          addTokensForReplacement((TerminalNode) node);
-        }
+    final SourcePosition begin;
+    final SourcePosition end;
+    {
+      if (this.tryFormat) {
+        begin = getBegin(node);
+        end = getEnd(node);
+      } else {
+        begin = SourcePosition.UNKNOWN;
+        end = SourcePosition.UNKNOWN;
       }
+    }
 
-      private final void addTokensForReplacement(final NonTerminalNode node) {
-        if (replacements == null) {
-          return;
-        }
-
-        if (isNullableListItem(node, removedNodes)) {
-          return;
-        }
-
-        addTokensForReplacement(node, getReplacement(node));
-      }
+    for (final Token token : replacement) {
+      final Token clonedToken = token.clone(begin, end);
+      tokens.add(clonedToken);
+    }
+  }
 
-      private final void addTokensForReplacement(final TerminalNode node) {
-        if (replacements == null) {
-          return;
-        }
+  private static final SourcePosition getBegin(final Node<?> node) {
+    if (node instanceof TerminalNode) {
+      final Token token = ((TerminalNode) node).getToken();
+      return token.getBegin();
+    }
 
-        addTokensForReplacement(node, getReplacement(node));
+    for (final Node<?> child : node.getChildren()) {
+      final SourcePosition begin = getBegin(child);
+      if (begin != SourcePosition.UNKNOWN) {
+        return begin;
       }
+    }
 
-      private final void addTokensForReplacement(final Node<?> node,
-          final List<Token> replacement) {
-        if (replacement == null || replacement.isEmpty()) {
-          return;
-        }
-
-        final SourcePosition begin;
-        final SourcePosition end;
-        {
-          if (TokenJoiner.this.tryFormat) {
-            begin = getBegin(node);
-            end = getEnd(node);
-          } else {
-            begin = SourcePosition.UNKNOWN;
-            end = SourcePosition.UNKNOWN;
-          }
-        }
+    return SourcePosition.UNKNOWN;
+  }
 
-        for (final Token token : replacement) {
-          final Token clonedToken = token.clone(begin, end);
-          tokens.add(clonedToken);
-        }
-      }
+  private static final SourcePosition getEnd(final Node<?> node) {
+    if (node instanceof TerminalNode) {
+      final Token token = ((TerminalNode) node).getToken();
+      return token.getEnd();
+    }
 
-      private final List<Token> getReplacement(final Node<?> node) {
-        if (replacements == null) {
-          return null;
-        }
+    for (int childIndex = node.numberOfChildren() - 1; childIndex >= 0; --childIndex) {
+      final Node<?> child = node.getChild(childIndex);
 
-        assert (node.getExpectedSymbol() != null);
-        return replacements.getOrDefault(node.getExpectedSymbol(), null);
+      final SourcePosition end = getEnd(child);
+      if (end != SourcePosition.UNKNOWN) {
+        return end;
       }
+    }
 
-      private final String getReplacementText(final Node<?> node) {
-        final List<Token> replacement = getReplacement(node);
-        return join(replacement);
-      }
+    return SourcePosition.UNKNOWN;
+  }
 
-      private final boolean isNullableListItem(final Node<?> node,
-          final Set<Node<?>> removedNodes) {
-        final Symbol<?> symbol = node.getSymbol();
+  private static final boolean isNullableListItem(final Node<?> node,
+      final Set<Node<?>> removedNodes) {
+    final Symbol<?> symbol = node.getSymbol();
 
-        if (symbol != ParserSymbol.LIST_ITEM) {
-          return false;
-        }
+    if (symbol != ParserSymbol.LIST_ITEM) {
+      return false;
+    }
 
-        assert (node.getParent() != null);
-        final Symbol<?> parentSymbol = node.getParent().getSymbol();
+    assert (node.getParent() != null);
+    final Symbol<?> parentSymbol = node.getParent().getSymbol();
 
-        if (parentSymbol == ParserSymbol.OPTIONAL || parentSymbol == ParserSymbol.STAR) {
-          return true;
-        } else {
-          if (parentSymbol == ParserSymbol.PLUS) {
-            assert (node.getParent() instanceof NonTerminalNode);
-            for (final Node<?> sibling : ((NonTerminalNode) node.getParent()).getChildren()) {
-              if (removedNodes == null || !removedNodes.contains(sibling)) {
-                return true;
-              }
-            }
+    if (parentSymbol == ParserSymbol.OPTIONAL || parentSymbol == ParserSymbol.STAR) {
+      return true;
+    } else {
+      if (parentSymbol == ParserSymbol.PLUS) {
+        assert (node.getParent() instanceof NonTerminalNode);
+        for (final Node<?> sibling : ((NonTerminalNode) node.getParent()).getChildren()) {
+          if (removedNodes == null || !removedNodes.contains(sibling)) {
+            return true;
           }
-
-          // all items of the '+' quantified list have been removed
-          // but: in order to be syntactically correct, we have to add the replacement for one child
-          // (it doesn't matter which item we "keep", since it is replaced anyway)
-          return (node.getParent().getChild(0) != node);
         }
       }
 
-      }, null);
-
-    final TokenStream tokenStream = new TokenStream(tokens);
-    return join(tokenStream);
+      // all items of the '+' quantified list have been removed
+      // but: in order to be syntactically correct, we have to add the replacement for one child
+      // (it doesn't matter which item we "keep", since it is replaced anyway)
+      return (node.getParent().getChild(0) != node);
+    }
   }
 
   public final Map<Symbol<?>, String> join(final Map<Symbol<?>, List<Token>> tokenSequences) {
@@ -0,0 +1,126 @@
+package i2.act.reduction.util;
+
+import i2.act.packrat.cst.Node;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// flat view of a syntax tree: the nodes are numbered in pre-order, and the structure of the tree
+// is stored in arrays indexed by these ids; the subtree of a node with id 'i' consists of the
+// nodes with ids 'i' (inclusive) to 'getSubtreeEnd(i)' (exclusive)
+//
+// NOTE: the index is not updated if the tree is modified
+public final class TreeIndex {
+
+  public static final int NO_NODE = -1;
+
+  private final Node<?>[] nodes;
+
+  private final int[] parents;
+  private final int[] firstChildren;
+  private final int[] nextSiblings;
+  private final int[] subtreeEnds;
+
+  private final Map<Node<?>, Integer> ids;
+
+  public TreeIndex(final Node<?> syntaxTree) {
+    final List<Node<?>> preOrder = new ArrayList<>();
+    {
+      final List<Node<?>> stack = new ArrayList<>();
+      stack.add(syntaxTree);
+
+      while (!stack.isEmpty()) {
+        final Node<?> node = stack.remove(stack.size() - 1);
+        preOrder.add(node);
+
+        final List<? extends Node<?>> children = node.getChildren();
+        for (int index = children.size() - 1; index >= 0; --index) {
+          stack.add(children.get(index));
+        }
+      }
+    }
+
+    final int size = preOrder.size();
+
+    this.nodes = preOrder.toArray(new Node<?>[size]);
+
+    this.ids = new IdentityHashMap<>(size);
+    for (int id = 0; id < size; ++id) {
+      this.ids.put(this.nodes[id], id);
+    }
+
+    this.parents = new int[size];
+    this.firstChildren = new int[size];
+    this.nextSiblings = new int[size];
+    this.subtreeEnds = new int[size];
+
+    for (int id = 0; id < size; ++id) {
+      this.parents[id] = NO_NODE;
+      this.firstChildren[id] = NO_NODE;
+      this.nextSiblings[id] = NO_NODE;
+    }
+
+    // children have larger ids than their parents -> compute the ends of the subtrees bottom-up
+    for (int id = size - 1; id >= 0; --id) {
+      final List<? extends Node<?>> children = this.nodes[id].getChildren();
+
+      int previousChild = NO_NODE;
+      for (final Node<?> child : children) {
+        final int childId = this.ids.get(child);
+
+        this.parents[childId] = id;
+
+        if (previousChild == NO_NODE) {
+          this.firstChildren[id] = childId;
+        } else {
+          this.nextSiblings[previousChild] = childId;
+        }
+
+        previousChild = childId;
+      }
+
+      this.subtreeEnds[id] = (previousChild == NO_NODE) ? id + 1 : this.subtreeEnds[previousChild];
+    }
+  }
+
+  public final int size() {
+    return this.nodes.length;
+  }
+
+  public final Node<?> getRoot() {
+    return this.nodes[0];
+  }
+
+  public final Node<?> getNode(final int id) {
+    return this.nodes[id];
+  }
+
+  // returns 'NO_NODE' if the node is not part of the indexed tree
+  public final int getId(final Node<?> node) {
+    final Integer id = this.ids.get(node);
+    return (id == null) ? NO_NODE : id;
+  }
+
+  public final int getParent(final int id) {
+    return this.parents[id];
+  }
+
+  public final int getFirstChild(final int id) {
+    return this.firstChildren[id];
+  }
+
+  public final int getNextSibling(final int id) {
+    return this.nextSiblings[id];
+  }
+
+  public final int getSubtreeEnd(final int id) {
+    return this.subtreeEnds[id];
+  }
+
+  public final boolean isAncestor(final int ancestor, final int id) {
+    return ancestor <= id && id < this.subtreeEnds[ancestor];
+  }
+
+}
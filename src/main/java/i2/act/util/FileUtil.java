@@ -2,8 +2,10 @@ package i2.act.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public final class FileUtil {
 
@@ -99,4 +101,16 @@ public final class FileUtil {
     writer.close();
   }
 
+  // streams the content to the file (see 'StreamingEncoder')
+  public static final void writeToFile(final CharSequence content, final String fileName,
+      final StreamingEncoder encoder) {
+    try (final FileChannel channel = FileChannel.open(Paths.get(fileName),
+        StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      encoder.write(content, channel);
+    } catch (final IOException exception) {
+      throw new RuntimeException("unable to write file", exception);
+    }
+  }
+
 }
@@ -0,0 +1,217 @@
+package i2.act.util;
+
+// 128-bit fingerprint of a character sequence (MurmurHash3 x64 128-bit, applied to the UTF-16 code
+// units); fingerprints are much smaller than the sequences themselves and can therefore be used as
+// keys of large caches
+public final class Fingerprint {
+
+  // estimated memory consumption of a fingerprint (object header, fields, and padding) in bytes
+  public static final int ESTIMATED_SIZE = 48;
+
+  // computes the fingerprint incrementally, e.g., while a program is serialized
+  public static final class Hasher {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1;
+    private long h2;
+
+    // the current (incomplete) block of eight characters
+    private long k1;
+    private long k2;
+
+    private int length;
+
+    public final Hasher append(final char character) {
+      final int position = this.length & 7;
+
+      if (position < 4) {
+        this.k1 |= ((long) character) << (16 * position);
+      } else {
+        this.k2 |= ((long) character) << (16 * (position - 4));
+      }
+
+      ++this.length;
+
+      if (position == 7) {
+        mixBlock();
+      }
+
+      return this;
+    }
+
+    public final Hasher append(final CharSequence characters) {
+      final int length = characters.length();
+
+      for (int index = 0; index < length; ++index) {
+        append(characters.charAt(index));
+      }
+
+      return this;
+    }
+
+    private final void mixBlock() {
+      this.h1 ^= mixK1(this.k1);
+
+      this.h1 = Long.rotateLeft(this.h1, 27);
+      this.h1 += this.h2;
+      this.h1 = this.h1 * 5 + 0x52dce729;
+
+      this.h2 ^= mixK2(this.k2);
+
+      this.h2 = Long.rotateLeft(this.h2, 31);
+      this.h2 += this.h1;
+      this.h2 = this.h2 * 5 + 0x38495ab5;
+
+      this.k1 = 0;
+      this.k2 = 0;
+    }
+
+    public final Fingerprint finish() {
+      return finish(null);
+    }
+
+    // if 'program' is not 'null', it is kept in the fingerprint to detect collisions
+    public final Fingerprint finish(final String program) {
+      long h1 = this.h1;
+      long h2 = this.h2;
+
+      // tail
+      final int remaining = this.length & 7;
+      if (remaining > 4) {
+        h2 ^= mixK2(this.k2);
+      }
+      if (remaining > 0) {
+        h1 ^= mixK1(this.k1);
+      }
+
+      // finalization
+      final long numberOfBytes = 2L * this.length;
+
+      h1 ^= numberOfBytes;
+      h2 ^= numberOfBytes;
+
+      h1 += h2;
+      h2 += h1;
+
+      h1 = fmix(h1);
+      h2 = fmix(h2);
+
+      h1 += h2;
+      h2 += h1;
+
+      return new Fingerprint(h1, h2, this.length, program);
+    }
+
+    private static final long mixK1(final long k1) {
+      return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static final long mixK2(final long k2) {
+      return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static final long fmix(final long value) {
+      long mixed = value;
+
+      mixed ^= mixed >>> 33;
+      mixed *= 0xff51afd7ed558ccdL;
+      mixed ^= mixed >>> 33;
+      mixed *= 0xc4ceb9fe1a85ec53L;
+      mixed ^= mixed >>> 33;
+
+      return mixed;
+    }
+
+  }
+
+  public static final Fingerprint of(final String program) {
+    return of(program, false);
+  }
+
+  public static final Fingerprint of(final String program, final boolean keepProgram) {
+    return new Hasher().append(program).finish(keepProgram ? program : null);
+  }
+
+  // restores a fingerprint that has been computed earlier (e.g., by another process)
+  public static final Fingerprint fromHash(final long high, final long low, final int length) {
+    return new Fingerprint(high, low, length, null);
+  }
+
+  // ===============================================================================================
+
+  public final long high;
+  public final long low;
+
+  // length of the fingerprinted sequence (in characters)
+  public final int length;
+
+  private final String program;
+
+  private Fingerprint(final long high, final long low, final int length, final String program) {
+    this.high = high;
+    this.low = low;
+    this.length = length;
+    this.program = program;
+  }
+
+  public final int getLength() {
+    return this.length;
+  }
+
+  public final boolean hasProgram() {
+    return this.program != null;
+  }
+
+  public final String getProgram() {
+    return this.program;
+  }
+
+  // returns false if both fingerprints are equal but belong to different programs (if the programs
+  // are not known, matching fingerprints are assumed to belong to the same program)
+  public final boolean matches(final Fingerprint other) {
+    if (!equals(other)) {
+      return false;
+    }
+
+    if (this.program == null || other.program == null) {
+      return true;
+    }
+
+    return this.program.equals(other.program);
+  }
+
+  public final long estimatedSize() {
+    if (this.program == null) {
+      return ESTIMATED_SIZE;
+    } else {
+      // string object and its backing character array
+      return ESTIMATED_SIZE + 40 + 2L * this.program.length();
+    }
+  }
+
+  @Override
+  public final boolean equals(final Object other) {
+    if (!(other instanceof Fingerprint)) {
+      return false;
+    }
+
+    final Fingerprint otherFingerprint = (Fingerprint) other;
+
+    return this.high == otherFingerprint.high
+        && this.low == otherFingerprint.low
+        && this.length == otherFingerprint.length;
+  }
+
+  @Override
+  public final int hashCode() {
+    return (int) (this.low ^ (this.low >>> 32));
+  }
+
+  @Override
+  public final String toString() {
+    return String.format("%016x%016x", this.high, this.low);
+  }
+
+}
@@ -3,15 +3,24 @@ package i2.act.util;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 
 public final class LRUCache<K, V> implements Map<K, V> {
 
+  // estimated memory consumption of the bookkeeping for one entry (hash map node, share of the
+  // hash table, and LRU list entry) in bytes, excluding the key and the value themselves
+  public static final int ESTIMATED_ENTRY_OVERHEAD = 88;
+
   public static interface EvictionStrategy {
 
     public boolean evictionNecessary(final LRUCache<?, ?> cache);
@@ -46,6 +55,32 @@ public final class LRUCache<K, V> implements Map<K, V> {
 
   }
 
+  // limits the total weight of all entries (see 'Weigher'), e.g., their estimated memory usage
+  public static final class EvictionMaxWeight implements EvictionStrategy {
+
+    private final long maxWeight;
+
+    public EvictionMaxWeight(final long maxWeight) {
+      this.maxWeight = maxWeight;
+    }
+
+    public final long getMaxWeight() {
+      return this.maxWeight;
+    }
+
+    @Override
+    public final boolean evictionNecessary(final LRUCache<?, ?> cache) {
+      return cache.getWeight() > this.maxWeight;
+    }
+
+  }
+
+  public static interface Weigher<K, V> {
+
+    public long weigh(final K key, final V value);
+
+  }
+
   private static final class LinkedEntry<K, V> {
 
     public final K key;
@@ -83,8 +118,30 @@ public final class LRUCache<K, V> implements Map<K, V> {
   private final LinkedEntry<K, V> headSentinel;
   private final LinkedEntry<K, V> tailSentinel;
 
+  // optional index of the entries by the length of their keys (see 'removeLongerThan')
+  private final ToIntFunction<K> keyLength;
+  private final TreeMap<Integer, Set<K>> lengthIndex;
+
+  // optional weigher; if there is none, each entry has a weight of 1
+  private final Weigher<? super K, ? super V> weigher;
+  private long weight;
+
+  private long numberOfEvictions;
+  private long numberOfInvalidations;
+  private long invalidationTime; // ns
+
   public LRUCache(final EvictionStrategy evictionStrategy) {
+    this(evictionStrategy, null);
+  }
+
+  public LRUCache(final EvictionStrategy evictionStrategy, final ToIntFunction<K> keyLength) {
+    this(evictionStrategy, keyLength, null);
+  }
+
+  public LRUCache(final EvictionStrategy evictionStrategy, final ToIntFunction<K> keyLength,
+      final Weigher<? super K, ? super V> weigher) {
     this.evictionStrategy = evictionStrategy;
+    this.weigher = weigher;
 
     this.cache = new HashMap<K, LinkedEntry<K, V>>();
 
@@ -93,15 +150,116 @@ public final class LRUCache<K, V> implements Map<K, V> {
 
     this.headSentinel.next = this.tailSentinel;
     this.tailSentinel.prev = this.headSentinel;
+
+    this.keyLength = keyLength;
+    this.lengthIndex = (keyLength == null) ? null : new TreeMap<Integer, Set<K>>();
   }
 
   @Override
   public final void clear() {
     this.cache.clear();
+    this.weight = 0;
+
+    this.headSentinel.next = this.tailSentinel;
+    this.tailSentinel.prev = this.headSentinel;
+
+    if (this.lengthIndex != null) {
+      this.lengthIndex.clear();
+    }
   }
 
   public final void clear(final Predicate<K> filterPredicate) {
-    this.cache.keySet().removeIf(filterPredicate);
+    final long startTime = System.nanoTime();
+
+    final Iterator<LinkedEntry<K, V>> iterator = this.cache.values().iterator();
+    while (iterator.hasNext()) {
+      final LinkedEntry<K, V> linkedEntry = iterator.next();
+
+      if (filterPredicate.test(linkedEntry.key)) {
+        iterator.remove();
+        deque(linkedEntry);
+        removeFromIndex(linkedEntry.key);
+        this.weight -= weigh(linkedEntry.key, linkedEntry.value);
+
+        ++this.numberOfInvalidations;
+      }
+    }
+
+    this.invalidationTime += System.nanoTime() - startTime;
+  }
+
+  // removes all entries whose keys are longer than the given length; requires the length index,
+  // and only takes time proportional to the number of removed entries
+  public final void removeLongerThan(final int length) {
+    assert (this.lengthIndex != null) : "cache has no length index";
+
+    final long startTime = System.nanoTime();
+
+    final NavigableMap<Integer, Set<K>> longerKeys = this.lengthIndex.tailMap(length, false);
+
+    for (final Set<K> keys : longerKeys.values()) {
+      for (final K key : keys) {
+        final LinkedEntry<K, V> linkedEntry = this.cache.remove(key);
+        assert (linkedEntry != null);
+
+        deque(linkedEntry);
+        this.weight -= weigh(linkedEntry.key, linkedEntry.value);
+
+        ++this.numberOfInvalidations;
+      }
+    }
+
+    longerKeys.clear();
+
+    this.invalidationTime += System.nanoTime() - startTime;
+  }
+
+  public final long getWeight() {
+    return this.weight;
+  }
+
+  public final long getNumberOfEvictions() {
+    return this.numberOfEvictions;
+  }
+
+  public final long getNumberOfInvalidations() {
+    return this.numberOfInvalidations;
+  }
+
+  // total time spent on invalidating entries (in ms)
+  public final long getInvalidationTime() {
+    return this.invalidationTime / 1000000;
+  }
+
+  private final long weigh(final K key, final V value) {
+    if (this.weigher == null) {
+      return 1;
+    } else {
+      return this.weigher.weigh(key, value);
+    }
+  }
+
+  private final void addToIndex(final K key) {
+    if (this.lengthIndex != null) {
+      this.lengthIndex
+          .computeIfAbsent(this.keyLength.applyAsInt(key), (length) -> new HashSet<K>())
+          .add(key);
+    }
+  }
+
+  private final void removeFromIndex(final K key) {
+    if (this.lengthIndex != null) {
+      final int length = this.keyLength.applyAsInt(key);
+      final Set<K> keys = this.lengthIndex.get(length);
+
+      if (keys != null) {
+        keys.remove(key);
+
+        if (keys.isEmpty()) {
+          this.lengthIndex.remove(length);
+        }
+      }
+    }
   }
 
   @Override
@@ -166,6 +324,18 @@ public final class LRUCache<K, V> implements Map<K, V> {
     }
   }
 
+  // returns the key object that is stored in the cache for the given key (or 'null' if there is no
+  // such key); does not update the LRU info
+  public final K getStoredKey(final Object key) {
+    final LinkedEntry<K, V> linkedEntry = this.cache.get(key);
+
+    if (linkedEntry == null) {
+      return null;
+    } else {
+      return linkedEntry.key;
+    }
+  }
+
   @Override
   public final boolean isEmpty() {
     return this.cache.isEmpty();
@@ -173,7 +343,8 @@ public final class LRUCache<K, V> implements Map<K, V> {
 
   @Override
   public final Set<K> keySet() {
-    return this.cache.keySet();
+    // entries must only be removed via the cache itself (to keep the LRU info consistent)
+    return Collections.unmodifiableSet(this.cache.keySet());
   }
 
   @Override
@@ -183,6 +354,8 @@ public final class LRUCache<K, V> implements Map<K, V> {
       final V oldValue = linkedEntry.value;
       linkedEntry.value = value;
 
+      this.weight += weigh(linkedEntry.key, value) - weigh(linkedEntry.key, oldValue);
+
       // update LRU info
       deque(linkedEntry);
       enque(linkedEntry);
@@ -191,16 +364,23 @@ public final class LRUCache<K, V> implements Map<K, V> {
     } else {
       final LinkedEntry<K, V> linkedEntry = new LinkedEntry<K, V>(key, value);
       this.cache.put(key, linkedEntry);
+      addToIndex(key);
+      this.weight += weigh(key, value);
 
       // update LRU info
       enque(linkedEntry);
 
-      // delete old elements (if necessary)
-      if (this.evictionStrategy.evictionNecessary(this)) {
+      // delete old elements (if necessary); with weights, a single entry may require several
+      // eviction (and a too heavy entry may even evict itself)
+      while (!this.cache.isEmpty() && this.evictionStrategy.evictionNecessary(this)) {
         final LinkedEntry<K, V> entryToRemove = this.tailSentinel.prev;
 
         this.cache.remove(entryToRemove.key);
+        removeFromIndex(entryToRemove.key);
         deque(entryToRemove);
+        this.weight -= weigh(entryToRemove.key, entryToRemove.value);
+
+        ++this.numberOfEvictions;
       }
 
       return null;
@@ -221,6 +401,9 @@ public final class LRUCache<K, V> implements Map<K, V> {
       return null;
     }
 
+    removeFromIndex(linkedEntry.key);
+    this.weight -= weigh(linkedEntry.key, linkedEntry.value);
+
     // update LRU info
     deque(linkedEntry);
 
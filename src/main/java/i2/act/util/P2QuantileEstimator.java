@@ -0,0 +1,151 @@
+package i2.act.util;
+
+import java.util.Arrays;
+
+// estimates a single quantile of a stream of observations in constant space with the P^2
+// algorithm by Jain and Chlamtac ("The P^2 algorithm for dynamic calculation of quantiles and
+// histograms without storing observations", 1985)
+public final class P2QuantileEstimator {
+
+  private static final int NUMBER_OF_MARKERS = 5;
+
+  private final double quantile;
+
+  private final double[] heights;
+  private final int[] positions;
+  private final double[] desiredPositions;
+  private final double[] increments;
+
+  private long count;
+
+  public P2QuantileEstimator(final double quantile) {
+    assert (quantile > 0 && quantile < 1);
+
+    this.quantile = quantile;
+
+    this.heights = new double[NUMBER_OF_MARKERS];
+    this.positions = new int[NUMBER_OF_MARKERS];
+    this.desiredPositions = new double[] {
+      1, 1 + 2 * quantile, 1 + 4 * quantile, 3 + 2 * quantile, 5
+    };
+    this.increments = new double[] {
+      0, quantile / 2, quantile, (1 + quantile) / 2, 1
+    };
+
+    this.count = 0;
+  }
+
+  public final double getQuantile() {
+    return this.quantile;
+  }
+
+  public final long getCount() {
+    return this.count;
+  }
+
+  public final void add(final double observation) {
+    if (this.count < NUMBER_OF_MARKERS) {
+      this.heights[(int) this.count] = observation;
+      ++this.count;
+
+      if (this.count == NUMBER_OF_MARKERS) {
+        Arrays.sort(this.heights);
+
+        for (int index = 0; index < NUMBER_OF_MARKERS; ++index) {
+          this.positions[index] = index + 1;
+        }
+      }
+
+      return;
+    }
+
+    ++this.count;
+
+    // find the cell that contains the observation (and adjust the extreme markers)
+    final int cell;
+    {
+      if (observation < this.heights[0]) {
+        this.heights[0] = observation;
+        cell = 0;
+      } else if (observation >= this.heights[NUMBER_OF_MARKERS - 1]) {
+        this.heights[NUMBER_OF_MARKERS - 1] = observation;
+        cell = NUMBER_OF_MARKERS - 2;
+      } else {
+        int index = 0;
+        while (observation >= this.heights[index + 1]) {
+          ++index;
+        }
+
+        cell = index;
+      }
+    }
+
+    for (int index = cell + 1; index < NUMBER_OF_MARKERS; ++index) {
+      ++this.positions[index];
+    }
+
+    for (int index = 0; index < NUMBER_OF_MARKERS; ++index) {
+      this.desiredPositions[index] += this.increments[index];
+    }
+
+    // adjust the heights of the middle markers if necessary
+    for (int index = 1; index < NUMBER_OF_MARKERS - 1; ++index) {
+      final double difference = this.desiredPositions[index] - this.positions[index];
+
+      if ((difference >= 1 && this.positions[index + 1] - this.positions[index] > 1)
+          || (difference <= -1 && this.positions[index - 1] - this.positions[index] < -1)) {
+        final int direction = (difference >= 0) ? 1 : -1;
+
+        final double parabolic = parabolic(index, direction);
+
+        if (this.heights[index - 1] < parabolic && parabolic < this.heights[index + 1]) {
+          this.heights[index] = parabolic;
+        } else {
+          this.heights[index] = linear(index, direction);
+        }
+
+        this.positions[index] += direction;
+      }
+    }
+  }
+
+  // returns the current estimate (or NaN if there are no observations yet)
+  public final double estimate() {
+    if (this.count == 0) {
+      return Double.NaN;
+    }
+
+    if (this.count < NUMBER_OF_MARKERS) {
+      // not enough observations for the markers yet -> use the exact quantile
+      final double[] observations = Arrays.copyOf(this.heights, (int) this.count);
+      Arrays.sort(observations);
+
+      final int index = (int) Math.round(this.quantile * (this.count - 1));
+      return observations[index];
+    }
+
+    return this.heights[2];
+  }
+
+  private final double parabolic(final int index, final int direction) {
+    final double height = this.heights[index];
+    final double previousHeight = this.heights[index - 1];
+    final double nextHeight = this.heights[index + 1];
+
+    final int position = this.positions[index];
+    final int previousPosition = this.positions[index - 1];
+    final int nextPosition = this.positions[index + 1];
+
+    return height + ((double) direction) / (nextPosition - previousPosition)
+        * ((position - previousPosition + direction) * (nextHeight - height)
+            / (nextPosition - position)
+          + (nextPosition - position - direction) * (height - previousHeight)
+            / (position - previousPosition));
+  }
+
+  private final double linear(final int index, final int direction) {
+    return this.heights[index] + direction * (this.heights[index + direction] - this.heights[index])
+        / (this.positions[index + direction] - this.positions[index]);
+  }
+
+}
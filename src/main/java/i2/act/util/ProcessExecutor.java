@@ -1,24 +1,131 @@
 package i2.act.util;
 
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 public final class ProcessExecutor {
 
   public static final int EXIT_VALUE_SUCCESS = 0;
 
+  public static final long NO_TIMEOUT = -1;
+
   public static final int execute(final String... command) {
+    return execute(NO_TIMEOUT, command);
+  }
+
+  // throws a ProcessTimeout if the process does not terminate within 'timeout' ms (in this case,
+  // the process and all of its descendants are killed)
+  public static final int execute(final long timeout, final String... command) {
     final ProcessBuilder processBuilder = new ProcessBuilder(command);
     processBuilder.inheritIO();
 
+    Process process = null;
+
     try {
-      final Process process = processBuilder.start();
-      process.waitFor();
+      process = processBuilder.start();
+
+      if (timeout == NO_TIMEOUT) {
+        process.waitFor();
+      } else if (!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+        killProcessTree(process);
+        throw new ProcessTimeout(timeout);
+      }
+
       return process.exitValue();
+    } catch (final InterruptedException exception) {
+      // the result is not needed anymore (e.g., because a concurrent check has already succeeded)
+      killProcessTree(process);
+      Thread.currentThread().interrupt();
+
+      throw new RuntimeException("interrupted while executing command", exception);
+    } catch (final ProcessTimeout timeoutException) {
+      throw timeoutException;
     } catch (final Throwable throwable) {
       throw new RuntimeException("unable to execute command", throwable);
     }
   }
 
   public static final boolean executeAndCheck(final String... command) {
-    return execute(command) == EXIT_VALUE_SUCCESS;
+    return executeAndCheck(NO_TIMEOUT, command);
+  }
+
+  public static final boolean executeAndCheck(final long timeout, final String... command) {
+    return execute(timeout, command) == EXIT_VALUE_SUCCESS;
+  }
+
+  // test scripts usually spawn further processes (compilers etc.) that would survive if only the
+  // script itself was killed; the process tree is only accessible via ProcessHandle (Java 9+), but
+  // as we still target Java 8, it is accessed reflectively (the methods have to be looked up on the
+  // public interface, as the implementing class is not accessible)
+  private static final Method TO_HANDLE;
+  private static final Method DESCENDANTS;
+  private static final Method DESTROY_FORCIBLY;
+
+  static {
+    Method toHandle = null;
+    Method descendants = null;
+    Method destroyForcibly = null;
+
+    try {
+      final Class<?> processHandle = Class.forName("java.lang.ProcessHandle");
+
+      toHandle = Process.class.getMethod("toHandle");
+      descendants = processHandle.getMethod("descendants");
+      destroyForcibly = processHandle.getMethod("destroyForcibly");
+    } catch (final ReflectiveOperationException exception) {
+      // Java 8 -> only the process itself can be killed
+    }
+
+    TO_HANDLE = toHandle;
+    DESCENDANTS = descendants;
+    DESTROY_FORCIBLY = destroyForcibly;
+  }
+
+  private static final AtomicBoolean REPORTED_KILL_FAILURE = new AtomicBoolean(false);
+
+  public static final void killProcessTree(final Process process) {
+    final List<Object> descendants = getDescendants(process);
+
+    process.destroyForcibly();
+
+    for (final Object descendant : descendants) {
+      try {
+        DESTROY_FORCIBLY.invoke(descendant);
+      } catch (final ReflectiveOperationException exception) {
+        reportKillFailure(exception);
+      }
+    }
+  }
+
+  private static final List<Object> getDescendants(final Process process) {
+    if (TO_HANDLE == null) {
+      return Collections.emptyList();
+    }
+
+    try {
+      final Object processHandle = TO_HANDLE.invoke(process);
+      final Stream<?> descendantsStream = (Stream<?>) DESCENDANTS.invoke(processHandle);
+
+      return descendantsStream.collect(Collectors.<Object>toList());
+    } catch (final ReflectiveOperationException exception) {
+      reportKillFailure(exception);
+      return Collections.emptyList();
+    }
+  }
+
+  // descendants that cannot be killed keep running (and may slow down later checks), so this is
+  // reported (but only once, as it would fail the same way for every check)
+  private static final void reportKillFailure(final ReflectiveOperationException exception) {
+    if (!REPORTED_KILL_FAILURE.getAndSet(true)) {
+      final Throwable cause =
+          (exception.getCause() == null) ? exception : exception.getCause();
+      System.err.format("[!] unable to kill descendants of test process: %s\n", cause);
+    }
   }
 
 }
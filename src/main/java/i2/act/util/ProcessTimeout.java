@@ -0,0 +1,9 @@
+package i2.act.util;
+
+public final class ProcessTimeout extends RuntimeException {
+
+  public ProcessTimeout(final long timeout) {
+    super(String.format("process did not terminate within %d ms", timeout));
+  }
+
+}
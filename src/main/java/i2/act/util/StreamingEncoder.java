@@ -0,0 +1,138 @@
+package i2.act.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+// encodes character sequences chunk-wise through a reusable direct buffer, i.e., without creating
+// a byte array of the size of the whole (encoded) sequence; not thread-safe, so each thread that
+// writes candidates should use its own instance
+public final class StreamingEncoder {
+
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+  private final CharsetEncoder encoder;
+  private final ByteBuffer buffer;
+
+  // only needed for writing to streams
+  private byte[] streamBuffer;
+
+  public StreamingEncoder() {
+    this(Charset.defaultCharset());
+  }
+
+  public StreamingEncoder(final Charset charset) {
+    this(charset, DEFAULT_BUFFER_SIZE);
+  }
+
+  public StreamingEncoder(final Charset charset, final int bufferSize) {
+    // same behavior as 'String.getBytes()' for malformed input
+    this.encoder = charset.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+  }
+
+  public final void write(final CharSequence content, final WritableByteChannel channel)
+      throws IOException {
+    encode(content, () -> {
+      while (this.buffer.hasRemaining()) {
+        channel.write(this.buffer);
+      }
+    });
+  }
+
+  public final void write(final CharSequence content, final OutputStream stream)
+      throws IOException {
+    if (this.streamBuffer == null) {
+      this.streamBuffer = new byte[this.buffer.capacity()];
+    }
+
+    encode(content, () -> {
+      final int length = this.buffer.remaining();
+
+      this.buffer.get(this.streamBuffer, 0, length);
+      stream.write(this.streamBuffer, 0, length);
+    });
+  }
+
+  private static interface Drain {
+
+    public void drain() throws IOException;
+
+  }
+
+  private final void encode(final CharSequence content, final Drain drain) throws IOException {
+    final CharBuffer characters = CharBuffer.wrap(content);
+
+    this.encoder.reset();
+    this.buffer.clear();
+
+    boolean inputConsumed = false;
+
+    while (true) {
+      final CoderResult result;
+      {
+        if (inputConsumed) {
+          result = this.encoder.flush(this.buffer);
+        } else {
+          result = this.encoder.encode(characters, this.buffer, true);
+        }
+      }
+
+      if (result.isOverflow()) {
+        flush(drain);
+      } else {
+        assert (result.isUnderflow());
+
+        if (inputConsumed) {
+          break;
+        }
+
+        inputConsumed = true;
+      }
+    }
+
+    flush(drain);
+  }
+
+  private final void flush(final Drain drain) throws IOException {
+    this.buffer.flip();
+    drain.drain();
+    this.buffer.clear();
+  }
+
+  // number of bytes of the UTF-8 encoding of the given sequence (as produced by 'write' with the
+  // UTF-8 charset, i.e., unpaired surrogates are replaced by a single byte)
+  public static final int getUTF8Length(final CharSequence content) {
+    int length = 0;
+    int index = 0;
+
+    while (index < content.length()) {
+      final char character = content.charAt(index++);
+
+      if (character < 0x80) {
+        length += 1;
+      } else if (character < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(character) && index < content.length()
+          && Character.isLowSurrogate(content.charAt(index))) {
+        length += 4;
+        ++index;
+      } else if (Character.isSurrogate(character)) {
+        length += 1;
+      } else {
+        length += 3;
+      }
+    }
+
+    return length;
+  }
+
+}